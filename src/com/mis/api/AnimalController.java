@@ -3,17 +3,32 @@ package com.mis.api;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Function;
 
 import com.mis.db.AnimalDAO;
 import com.mis.db.BoxDAO;
+import com.mis.db.DatabaseConnection;
+import com.mis.db.FreeBoxIndex;
 import com.mis.db.OwnerDAO;
+import com.mis.db.SearchDAO;
 import com.mis.db.TreatmentDAO;
+import com.mis.model.AdministerOutcome;
 import com.mis.model.Animal;
+import com.mis.model.AnimalFacets;
 import com.mis.model.Box;
+import com.mis.model.BoxAssignmentOutcome;
 import com.mis.model.BoxStatus;
 import com.mis.model.Owner;
+import com.mis.model.PlacementResult;
 import com.mis.model.Treatment;
+import com.mis.model.TreatmentProtocol;
 import com.mis.model.TreatmentType;
 
 /**
@@ -24,12 +39,17 @@ public class AnimalController {
     private BoxDAO boxDAO;
     private OwnerDAO ownerDAO;
     private TreatmentDAO treatmentDAO;
+    private SearchDAO searchDAO;
+    private ProtocolEngine protocolEngine;
     
     public AnimalController() {
         this.animalDAO = new AnimalDAO();
         this.boxDAO = new BoxDAO();
         this.ownerDAO = new OwnerDAO();
         this.treatmentDAO = new TreatmentDAO();
+        this.searchDAO = new SearchDAO();
+        this.protocolEngine = new ProtocolEngine(treatmentDAO,
+                ProtocolEngine.readProtocols(DatabaseConnection.getInstance().getConfig()));
     }
     
     /**
@@ -39,6 +59,13 @@ public class AnimalController {
         return animalDAO.getAll();
     }
     
+    /**
+     * Get a page of animals ordered by ID, starting after the given ID
+     */
+    public List<Animal> getAnimalPage(int afterId, int limit) throws SQLException {
+        return animalDAO.getPage(afterId, limit);
+    }
+    
     /**
      * Get animal by ID
      */
@@ -94,43 +121,19 @@ public class AnimalController {
     }
     
     /**
-     * Assign an animal to a box
+     * Assign an animal to a box, in one transaction that fails if another
+     * station took the box first
+     * @return Whether the animal is now in the box
      */
     public boolean assignBox(int animalId, int boxId) throws SQLException {
-        Animal animal = animalDAO.getById(animalId);
-        Box box = boxDAO.getById(boxId);
-        
-        if (animal != null && box != null && box.isAvailable()) {
-            // If animal is already in a box, release it first
-            if (animal.getBox() != null) {
-                Box oldBox = animal.getBox();
-                oldBox.releaseAnimal();
-                boxDAO.update(oldBox);
-            }
-            
-            // Assign to new box
-            box.assignAnimal(animal);
-            boxDAO.update(box);
-            return animalDAO.update(animal);
-        }
-        
-        return false;
+        return boxDAO.assign(animalId, boxId) == BoxAssignmentOutcome.ASSIGNED;
     }
     
     /**
      * Release animal from current box
      */
     public boolean releaseFromBox(int animalId) throws SQLException {
-        Animal animal = animalDAO.getById(animalId);
-        
-        if (animal != null && animal.getBox() != null) {
-            Box box = animal.getBox();
-            box.releaseAnimal();
-            boxDAO.update(box);
-            return animalDAO.update(animal);
-        }
-        
-        return false;
+        return boxDAO.release(animalId);
     }
     
     /**
@@ -159,18 +162,49 @@ public class AnimalController {
     }
     
     /**
-     * Record that a treatment has been administered
+     * Record that a treatment has been administered today. If it follows a
+     * protocol, its next dose is created instead of using the given due date.
      */
     public boolean administerTreatment(int treatmentId, LocalDate nextDueDate) throws SQLException {
-        Treatment treatment = treatmentDAO.getById(treatmentId);
-        
-        if (treatment != null) {
-            treatment.administer();
-            treatment.setNextDueDate(nextDueDate);
-            return treatmentDAO.update(treatment);
-        }
-        
-        return false;
+        Map<Integer, AdministerOutcome> outcomes = protocolEngine.administer(
+                Collections.singletonList(treatmentId), LocalDate.now(), treatment -> nextDueDate);
+        return outcomes.get(treatmentId) == AdministerOutcome.ADMINISTERED;
+    }
+    
+    /**
+     * Record that several treatments were administered on the same day, in one
+     * transaction, each getting the next due date computed by the given function,
+     * or its next dose created if it follows a protocol
+     * @return The outcome for each treatment ID
+     */
+    public Map<Integer, AdministerOutcome> administerAll(Collection<Integer> treatmentIds, LocalDate administeredOn,
+                                                         Function<Treatment, LocalDate> nextDueDate) throws SQLException {
+        return protocolEngine.administer(treatmentIds, administeredOn, nextDueDate);
+    }
+    
+    /**
+     * Get the configured treatment protocols
+     */
+    public List<TreatmentProtocol> getTreatmentProtocols() {
+        return protocolEngine.getProtocols();
+    }
+    
+    /**
+     * Schedule the first dose of a protocol for every animal of a species
+     * @return The number of treatments created
+     */
+    public int applyProtocolToSpecies(TreatmentProtocol protocol, String species, LocalDate firstDueDate)
+            throws SQLException {
+        return protocolEngine.applyToSpecies(protocol, species, firstDueDate);
+    }
+    
+    /**
+     * Get the IDs of the treatments due between two days, both included, by day,
+     * from the in-memory due date index
+     */
+    public SortedMap<LocalDate, List<Integer>> getTreatmentIdsDueBetween(LocalDate from, LocalDate to)
+            throws SQLException {
+        return treatmentDAO.dueIdsBetween(from, to);
     }
     
     /**
@@ -182,25 +216,190 @@ public class AnimalController {
     
     /**
      * Get available boxes suitable for a given animal's size.
+     * When every box of the matching size is taken, the boxes of the smallest
+     * larger size with free boxes are returned instead.
      * @param animal The animal for which to find suitable boxes.
      * @return A list of suitable and available boxes.
      * @throws SQLException If a database error occurs.
      */
     public List<Box> getSuitableAvailableBoxes(Animal animal) throws SQLException {
-        List<Box> availableBoxes = boxDAO.getAvailableBoxes();
-        List<Box> suitableBoxes = new ArrayList<>();
+        FreeBoxIndex freeBoxes = boxDAO.getFreeBoxIndex();
         String requiredSize = mapAnimalSizeToBoxSize(animal.getSize());
 
         if (requiredSize == null) { // If animal size is unknown or mapping not defined
-            return availableBoxes; // Return all available boxes as fallback
+            return freeBoxes.getAll(); // Return all available boxes as fallback
         }
 
-        for (Box box : availableBoxes) {
-            if (requiredSize.equals(box.getSize())) {
-                suitableBoxes.add(box);
+        return freeBoxes.getBestFit(requiredSize);
+    }
+
+    /**
+     * Find the next free box for an animal: the matching size, or the smallest
+     * larger one when that size is full, preferring the given location.
+     * @param animal The animal to house.
+     * @param preferredLocation Location to pick first, or null.
+     * @return A free box, or null if none fits.
+     * @throws SQLException If a database error occurs.
+     */
+    public Box findBoxFor(Animal animal, String preferredLocation) throws SQLException {
+        FreeBoxIndex freeBoxes = boxDAO.getFreeBoxIndex();
+        String requiredSize = mapAnimalSizeToBoxSize(animal.getSize());
+
+        if (requiredSize == null) {
+            List<Box> all = freeBoxes.getAll();
+            return all.isEmpty() ? null : all.get(0);
+        }
+
+        return freeBoxes.nextBestFit(requiredSize, preferredLocation);
+    }
+
+    /**
+     * Place a batch of animals in the current free boxes, keeping animals of the
+     * same owner in the same location when possible.
+     * @see #placeAll(List, boolean)
+     */
+    public PlacementResult placeAll(List<Animal> animals) throws SQLException {
+        return placeAll(animals, true);
+    }
+
+    /**
+     * Place a batch of animals, e.g. a transport arriving, in one pass: the
+     * placement is planned against a snapshot of the free boxes, larger animals
+     * first, with the same size matching and best-fit fallback as a single
+     * assignment, then committed in one transaction.
+     * @param animals Saved animals to place; animals already in a box are moved.
+     * @param keepOwnersTogether Whether animals of the same owner go to the
+     *        location that can hold most of them.
+     * @return The placed animals with their boxes, and the animals left unplaced.
+     * @throws SQLException If a database error occurs.
+     */
+    public PlacementResult placeAll(List<Animal> animals, boolean keepOwnersTogether) throws SQLException {
+        FreeBoxIndex freeBoxes = boxDAO.getFreeBoxIndex().snapshot();
+        Map<Animal, Box> plan = new LinkedHashMap<>();
+
+        // Largest animals first, so smaller ones do not take the only boxes they fit
+        List<Animal> pending = new ArrayList<>(animals);
+        pending.sort(Comparator.comparingInt((Animal animal) -> sizeRank(animal.getSize())).reversed());
+
+        if (keepOwnersTogether) {
+            Map<Integer, List<Animal>> byOwner = new LinkedHashMap<>();
+            for (Animal animal : pending) {
+                if (animal.getOwner() != null) {
+                    byOwner.computeIfAbsent(animal.getOwner().getId(), id -> new ArrayList<>()).add(animal);
+                }
+            }
+
+            for (List<Animal> group : byOwner.values()) {
+                if (group.size() < 2) {
+                    continue;
+                }
+
+                String location = bestLocationFor(freeBoxes, group);
+                for (Animal animal : group) {
+                    String requiredSize = mapAnimalSizeToBoxSize(animal.getSize());
+                    Box box = location != null ? freeBoxes.take(requiredSize, location, true) : null;
+                    if (box == null) {
+                        box = freeBoxes.take(requiredSize, null, false);
+                    }
+                    plan.put(animal, box);
+                }
+            }
+        }
+
+        for (Animal animal : pending) {
+            if (!plan.containsKey(animal)) {
+                plan.put(animal, freeBoxes.take(mapAnimalSizeToBoxSize(animal.getSize()), null, false));
             }
         }
-        return suitableBoxes;
+
+        Map<Integer, Integer> boxIds = new LinkedHashMap<>();
+        for (Map.Entry<Animal, Box> placement : plan.entrySet()) {
+            if (placement.getValue() != null && placement.getKey().getId() > 0) {
+                boxIds.put(placement.getKey().getId(), placement.getValue().getId());
+            }
+        }
+        Map<Integer, BoxAssignmentOutcome> outcomes = boxDAO.assignAll(boxIds);
+
+        PlacementResult result = new PlacementResult();
+        for (Animal animal : animals) {
+            Box box = plan.get(animal);
+            if (box != null && outcomes.get(animal.getId()) == BoxAssignmentOutcome.ASSIGNED
+                    && boxIds.get(animal.getId()) == box.getId()) {
+                result.addPlacement(animal, box);
+            } else {
+                result.addUnplaced(animal);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the filterable values of every animal, ordered by ID like the pages
+     */
+    public List<AnimalFacets> getAnimalFacets() throws SQLException {
+        return animalDAO.getAllFacets();
+    }
+    
+    /**
+     * Search the animals by name, species, breed or owner name, best matches first
+     * @param text Words typed by the user, each matched as a word prefix
+     * @param limit Maximum number of animals to return
+     */
+    public List<Animal> searchAnimals(String text, int limit) throws SQLException {
+        return animalDAO.getAllByIds(searchDAO.searchAnimalIds(text, limit));
+    }
+    
+    /**
+     * Get the animals that are not in a box
+     */
+    public List<Animal> getAnimalsWithoutBox() throws SQLException {
+        return animalDAO.getAllWithoutBox();
+    }
+
+    /**
+     * Location where most animals of a group fit, or null if none has a free box
+     */
+    private String bestLocationFor(FreeBoxIndex freeBoxes, List<Animal> group) {
+        String best = null;
+        int bestCount = 0;
+
+        for (String location : freeBoxes.getLocations()) {
+            FreeBoxIndex trial = freeBoxes.snapshot();
+            int placed = 0;
+            for (Animal animal : group) {
+                if (trial.take(mapAnimalSizeToBoxSize(animal.getSize()), location, true) != null) {
+                    placed++;
+                }
+            }
+
+            if (placed > bestCount) {
+                best = location;
+                bestCount = placed;
+                if (placed == group.size()) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Order of animal sizes, unknown sizes first
+     */
+    private int sizeRank(String animalSize) {
+        if (animalSize == null) {
+            return 0;
+        }
+        switch (animalSize) {
+            case "Small":
+                return 1;
+            case "Medium":
+                return 2;
+            case "Large":
+                return 3;
+            default:
+                return 0;
+        }
     }
 
     /**
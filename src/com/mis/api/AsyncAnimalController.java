@@ -0,0 +1,462 @@
+package com.mis.api;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.mis.db.DatabaseConfig;
+import com.mis.db.SqlFunction;
+import com.mis.model.AdministerOutcome;
+import com.mis.model.Animal;
+import com.mis.model.AnimalFacets;
+import com.mis.model.Box;
+import com.mis.model.PlacementResult;
+import com.mis.model.Treatment;
+import com.mis.model.TreatmentProtocol;
+import com.mis.model.TreatmentType;
+
+/**
+ * Asynchronous facade of AnimalController: each call runs on a dedicated pool
+ * of named daemon threads and returns a CompletableFuture, so the Event Dispatch
+ * Thread never waits for the database and calls can be chained or combined.
+ *
+ * The pool has a fixed number of threads and a bounded queue; a call submitted
+ * while the queue is full fails right away with a RejectedExecutionException
+ * instead of blocking the caller. A call still waiting for a thread when the
+ * timeout expires fails with a TimeoutException and never runs; a call that has
+ * started always runs to the end, since sqlite statements cannot be interrupted.
+ * A caller that cancels the future of a running write cannot tell whether the
+ * write is applied; it must read the data back. SQL errors complete the future
+ * exceptionally with the SQLException. On JDK 21 and later the pool can
+ * run its calls on virtual threads; the thread count still bounds how many reach
+ * the connection pool at once.
+ */
+public class AsyncAnimalController {
+    
+    /** Default number of calls running at once */
+    public static final int DEFAULT_THREADS = 4;
+    /** Default number of calls waiting for a thread */
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+    /** Default time a call may wait for a thread, 0 for no limit */
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    
+    private static final String THREAD_NAME_PREFIX = "animal-api-";
+    
+    private final AnimalController controller;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final boolean virtualThreads;
+    
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    
+    /**
+     * @param threads Number of calls running at once
+     * @param queueCapacity Number of calls waiting for a thread before new ones are rejected
+     * @param timeoutMillis Time a call may wait for a thread, 0 for no limit
+     * @param useVirtualThreads Whether to run the calls on virtual threads when the JDK has them
+     */
+    public AsyncAnimalController(AnimalController controller, int threads, int queueCapacity,
+                                 long timeoutMillis, boolean useVirtualThreads) {
+        this.controller = controller;
+        this.timeoutMillis = timeoutMillis;
+        
+        ThreadFactory virtualFactory = useVirtualThreads ? virtualThreadFactory() : null;
+        this.virtualThreads = virtualFactory != null;
+        ThreadFactory factory = virtualFactory != null ? virtualFactory : new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)), factory, new ThreadPoolExecutor.AbortPolicy());
+        // Idle threads exit, so the pool costs nothing between bursts
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Facade with the pool settings of the configuration
+     */
+    public AsyncAnimalController(AnimalController controller, DatabaseConfig config) {
+        this(controller, Math.max(config.getInt("async.threads", DEFAULT_THREADS), 1),
+                config.getInt("async.queueCapacity", DEFAULT_QUEUE_CAPACITY),
+                TimeUnit.SECONDS.toMillis(config.getInt("async.timeoutSeconds", DEFAULT_TIMEOUT_SECONDS)),
+                config.getBoolean("async.virtualThreads", false));
+    }
+    
+    /**
+     * Get the wrapped synchronous controller
+     */
+    public AnimalController getController() {
+        return controller;
+    }
+    
+    /**
+     * Run any call of the controller on the pool, with the default timeout
+     */
+    public <T> CompletableFuture<T> supply(SqlFunction<AnimalController, T> call) {
+        return supply(call, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Run any call of the controller on the pool
+     * @param timeout Time the call may wait for a thread, 0 for no limit; once
+     * started the call is not timed out, so a failed future means it did not run
+     */
+    public <T> CompletableFuture<T> supply(SqlFunction<AnimalController, T> call, long timeout, TimeUnit unit) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        submitted.incrementAndGet();
+        
+        // Set by whichever comes first: the call starting, the timeout or a cancel
+        AtomicBoolean claimed = new AtomicBoolean();
+        
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                // Timed out or cancelled while queued
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                queueWaitNanos.addAndGet(System.nanoTime() - queuedAt);
+                started.incrementAndGet();
+                
+                try {
+                    future.complete(call.apply(controller));
+                } catch (Throwable e) {
+                    // Errors too, or the caller would wait forever: anything thrown
+                    // here only ends in the task's Future, which nobody reads
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+            return future;
+        }
+        peakQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+        
+        if (timeout > 0) {
+            CompletableFuture.delayedExecutor(timeout, unit).execute(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    future.completeExceptionally(new TimeoutException(
+                            "Call still queued after " + timeout + " " + unit.toString().toLowerCase()));
+                    task.cancel(false);
+                    executor.purge();
+                }
+            });
+        }
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                succeeded.incrementAndGet();
+                return;
+            }
+            
+            failed.incrementAndGet();
+            if (error instanceof TimeoutException) {
+                timedOut.incrementAndGet();
+            }
+            if (error instanceof CancellationException && claimed.compareAndSet(false, true)) {
+                // Free the queue slot of a call nobody waits for anymore
+                task.cancel(false);
+                executor.purge();
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * @see AnimalController#getAllAnimals()
+     */
+    public CompletableFuture<List<Animal>> getAllAnimalsAsync() {
+        return supply(AnimalController::getAllAnimals);
+    }
+    
+    /**
+     * @see AnimalController#getAnimalPage(int, int)
+     */
+    public CompletableFuture<List<Animal>> getAnimalPageAsync(int afterId, int limit) {
+        return supply(controller -> controller.getAnimalPage(afterId, limit));
+    }
+    
+    /**
+     * @see AnimalController#getAnimalById(int)
+     */
+    public CompletableFuture<Animal> getAnimalByIdAsync(int id) {
+        return supply(controller -> controller.getAnimalById(id));
+    }
+    
+    /**
+     * @see AnimalController#createAnimal(String, String, String, LocalDate, String, String)
+     */
+    public CompletableFuture<Animal> createAnimalAsync(String name, String species, String breed,
+                                                       LocalDate birthDate, String gender, String size) {
+        return supply(controller -> controller.createAnimal(name, species, breed, birthDate, gender, size));
+    }
+    
+    /**
+     * @see AnimalController#updateAnimal(Animal)
+     */
+    public CompletableFuture<Boolean> updateAnimalAsync(Animal animal) {
+        return supply(controller -> controller.updateAnimal(animal));
+    }
+    
+    /**
+     * @see AnimalController#deleteAnimal(int)
+     */
+    public CompletableFuture<Boolean> deleteAnimalAsync(int id) {
+        return supply(controller -> controller.deleteAnimal(id));
+    }
+    
+    /**
+     * @see AnimalController#assignOwner(int, int)
+     */
+    public CompletableFuture<Boolean> assignOwnerAsync(int animalId, int ownerId) {
+        return supply(controller -> controller.assignOwner(animalId, ownerId));
+    }
+    
+    /**
+     * @see AnimalController#assignBox(int, int)
+     */
+    public CompletableFuture<Boolean> assignBoxAsync(int animalId, int boxId) {
+        return supply(controller -> controller.assignBox(animalId, boxId));
+    }
+    
+    /**
+     * @see AnimalController#releaseFromBox(int)
+     */
+    public CompletableFuture<Boolean> releaseFromBoxAsync(int animalId) {
+        return supply(controller -> controller.releaseFromBox(animalId));
+    }
+    
+    /**
+     * @see AnimalController#addTreatment(int, TreatmentType, String, String, LocalDate)
+     */
+    public CompletableFuture<Treatment> addTreatmentAsync(int animalId, TreatmentType type, String name,
+                                                          String description, LocalDate nextDueDate) {
+        return supply(controller -> controller.addTreatment(animalId, type, name, description, nextDueDate));
+    }
+    
+    /**
+     * @see AnimalController#administerTreatment(int, LocalDate)
+     */
+    public CompletableFuture<Boolean> administerTreatmentAsync(int treatmentId, LocalDate nextDueDate) {
+        return supply(controller -> controller.administerTreatment(treatmentId, nextDueDate));
+    }
+    
+    /**
+     * @see AnimalController#administerAll(Collection, LocalDate, Function)
+     */
+    public CompletableFuture<Map<Integer, AdministerOutcome>> administerAllAsync(
+            Collection<Integer> treatmentIds, LocalDate administeredOn, Function<Treatment, LocalDate> nextDueDate) {
+        return supply(controller -> controller.administerAll(treatmentIds, administeredOn, nextDueDate));
+    }
+    
+    /**
+     * @see AnimalController#applyProtocolToSpecies(TreatmentProtocol, String, LocalDate)
+     */
+    public CompletableFuture<Integer> applyProtocolToSpeciesAsync(TreatmentProtocol protocol, String species,
+                                                                  LocalDate firstDueDate) {
+        return supply(controller -> controller.applyProtocolToSpecies(protocol, species, firstDueDate));
+    }
+    
+    /**
+     * @see AnimalController#getTreatmentIdsDueBetween(LocalDate, LocalDate)
+     */
+    public CompletableFuture<SortedMap<LocalDate, List<Integer>>> getTreatmentIdsDueBetweenAsync(LocalDate from,
+                                                                                                 LocalDate to) {
+        return supply(controller -> controller.getTreatmentIdsDueBetween(from, to));
+    }
+    
+    /**
+     * @see AnimalController#getAnimalsWithOverdueTreatments()
+     */
+    public CompletableFuture<List<Animal>> getAnimalsWithOverdueTreatmentsAsync() {
+        return supply(AnimalController::getAnimalsWithOverdueTreatments);
+    }
+    
+    /**
+     * @see AnimalController#getSuitableAvailableBoxes(Animal)
+     */
+    public CompletableFuture<List<Box>> getSuitableAvailableBoxesAsync(Animal animal) {
+        return supply(controller -> controller.getSuitableAvailableBoxes(animal));
+    }
+    
+    /**
+     * @see AnimalController#findBoxFor(Animal, String)
+     */
+    public CompletableFuture<Box> findBoxForAsync(Animal animal, String preferredLocation) {
+        return supply(controller -> controller.findBoxFor(animal, preferredLocation));
+    }
+    
+    /**
+     * Find the next free box for an animal and assign it, in one call on the pool
+     * @return The box the animal is now in, or null if none fits or another
+     *         station took the box first
+     */
+    public CompletableFuture<Box> findAndAssignBoxAsync(Animal animal, String preferredLocation) {
+        return supply(controller -> {
+            Box box = controller.findBoxFor(animal, preferredLocation);
+            return box != null && controller.assignBox(animal.getId(), box.getId()) ? box : null;
+        });
+    }
+    
+    /**
+     * @see AnimalController#placeAll(List, boolean)
+     */
+    public CompletableFuture<PlacementResult> placeAllAsync(List<Animal> animals, boolean keepOwnersTogether) {
+        return supply(controller -> controller.placeAll(animals, keepOwnersTogether));
+    }
+    
+    /**
+     * @see AnimalController#getAnimalFacets()
+     */
+    public CompletableFuture<List<AnimalFacets>> getAnimalFacetsAsync() {
+        return supply(AnimalController::getAnimalFacets);
+    }
+    
+    /**
+     * @see AnimalController#searchAnimals(String, int)
+     */
+    public CompletableFuture<List<Animal>> searchAnimalsAsync(String text, int limit) {
+        return supply(controller -> controller.searchAnimals(text, limit));
+    }
+    
+    /**
+     * @see AnimalController#getAnimalsWithoutBox()
+     */
+    public CompletableFuture<List<Animal>> getAnimalsWithoutBoxAsync() {
+        return supply(AnimalController::getAnimalsWithoutBox);
+    }
+    
+    /**
+     * Stop accepting calls; queued and running calls still complete
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+    
+    /**
+     * Wait for the queued and running calls after a shutdown
+     * @return Whether they all completed in time
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+    
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    /**
+     * Number of calls waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+    
+    /**
+     * Largest number of calls seen waiting for a thread
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+    
+    public int getQueueCapacity() {
+        return executor.getQueue().size() + executor.getQueue().remainingCapacity();
+    }
+    
+    /**
+     * Number of calls running right now
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+    
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+    
+    public long getSucceededCount() {
+        return succeeded.get();
+    }
+    
+    /**
+     * Number of calls that failed, timed out and rejected calls included
+     */
+    public long getFailedCount() {
+        return failed.get() + rejected.get();
+    }
+    
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    
+    /**
+     * Average time a call waited for a thread, in milliseconds
+     */
+    public double getAverageQueueWaitMillis() {
+        long count = started.get();
+        return count == 0 ? 0 : queueWaitNanos.get() / 1e6 / count;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("AsyncAnimalController[threads=%d%s, active=%d, queue=%d/%d (peak %d), "
+                + "submitted=%d, succeeded=%d, failed=%d, timedOut=%d, rejected=%d, avgWait=%.1fms]",
+                executor.getMaximumPoolSize(), virtualThreads ? " virtual" : "", getActiveCount(),
+                getQueueDepth(), getQueueCapacity(), getPeakQueueDepth(), getSubmittedCount(),
+                getSucceededCount(), getFailedCount(), getTimedOutCount(), getRejectedCount(),
+                getAverageQueueWaitMillis());
+    }
+    
+    /**
+     * Factory of named virtual threads, looked up by reflection since the code
+     * also runs on JDKs without them
+     * @return The factory, or null before JDK 21
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, THREAD_NAME_PREFIX, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available, using platform threads: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.mis.api;
+
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mis.db.DatabaseConfig;
+import com.mis.db.OwnerDAO;
+import com.mis.model.DuplicateOwnerReport;
+import com.mis.model.DuplicateOwnerReport.Candidate;
+import com.mis.model.DuplicateOwnerReport.Match;
+import com.mis.model.Owner;
+
+/**
+ * Finds owners entered twice with slightly different spellings or phone formats.
+ *
+ * Names are compared without accents or case, phones as their digits in the
+ * national format and emails in lower case. Instead of comparing every pair of
+ * owners, each owner is put in blocks by key: the Soundex code of its last name,
+ * the postcode found in its address, its phone and its email. Only owners
+ * sharing a block are compared, so the work grows with the size of the blocks
+ * rather than the square of the number of owners.
+ */
+public class OwnerDeduplicator {
+    
+    /** Default minimum score of a reported pair, in percent */
+    public static final int DEFAULT_MIN_SCORE = 75;
+    /** Default size above which a block is too common a key to compare pair by pair */
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 500;
+    
+    // Weights of the score; a name counts most, shared contact details add to it
+    private static final double NAME_WEIGHT = 0.6;
+    private static final double PHONE_WEIGHT = 0.25;
+    private static final double EMAIL_WEIGHT = 0.25;
+    private static final double POSTCODE_WEIGHT = 0.15;
+    /** Name similarity from which two names are reported as matching */
+    private static final double SIMILAR_NAME = 0.85;
+    
+    private static final Pattern POSTCODE = Pattern.compile("\\b(\\d{5})\\b");
+    
+    /**
+     * Normalized values of an owner, computed once per run
+     */
+    private static final class Record {
+        private final Owner owner;
+        private final String name;
+        private final String reversedName;
+        private final String lastName;
+        private final String phone;
+        private final String email;
+        private final String postcode;
+        
+        private Record(Owner owner) {
+            this.owner = owner;
+            String firstName = normalizeName(owner.getFirstName());
+            this.lastName = normalizeName(owner.getLastName());
+            this.name = (firstName + " " + lastName).trim();
+            this.reversedName = (lastName + " " + firstName).trim();
+            this.phone = normalizePhone(owner.getPhone());
+            this.email = normalizeEmail(owner.getEmail());
+            this.postcode = extractPostcode(owner.getAddress());
+        }
+    }
+    
+    private final OwnerDAO ownerDAO;
+    private final double minScore;
+    private final int maxBlockSize;
+    
+    /**
+     * @param minScore Minimum score of a reported pair, in percent
+     * @param maxBlockSize Size above which a block is skipped
+     */
+    public OwnerDeduplicator(OwnerDAO ownerDAO, int minScore, int maxBlockSize) {
+        this.ownerDAO = ownerDAO;
+        this.minScore = minScore / 100.0;
+        this.maxBlockSize = maxBlockSize;
+    }
+    
+    /**
+     * Deduplicator with the thresholds of the configuration
+     */
+    public OwnerDeduplicator(OwnerDAO ownerDAO, DatabaseConfig config) {
+        this(ownerDAO, config.getInt("dedup.owners.minScore", DEFAULT_MIN_SCORE),
+                config.getInt("dedup.owners.maxBlockSize", DEFAULT_MAX_BLOCK_SIZE));
+    }
+    
+    /**
+     * Find the likely duplicates among every owner of the database
+     */
+    public DuplicateOwnerReport findDuplicates() throws SQLException {
+        return findDuplicates(ownerDAO.getAll());
+    }
+    
+    /**
+     * Find the likely duplicates among the given owners
+     */
+    public DuplicateOwnerReport findDuplicates(List<Owner> owners) {
+        List<Record> records = new ArrayList<>(owners.size());
+        Map<String, List<Record>> blocks = new HashMap<>();
+        
+        for (Owner owner : owners) {
+            Record record = new Record(owner);
+            records.add(record);
+            
+            addToBlock(blocks, "N:", soundex(record.lastName), record);
+            addToBlock(blocks, "P:", record.postcode, record);
+            addToBlock(blocks, "T:", record.phone, record);
+            addToBlock(blocks, "E:", record.email, record);
+        }
+        
+        List<Candidate> candidates = new ArrayList<>();
+        Set<Long> compared = new HashSet<>();
+        int blockCount = 0;
+        
+        for (List<Record> block : blocks.values()) {
+            if (block.size() < 2 || block.size() > maxBlockSize) {
+                continue;
+            }
+            blockCount++;
+            
+            for (int i = 0; i < block.size(); i++) {
+                for (int j = i + 1; j < block.size(); j++) {
+                    Record a = block.get(i);
+                    Record b = block.get(j);
+                    // Owners sharing several keys are compared once
+                    if (a.owner.getId() == b.owner.getId() || !compared.add(pairKey(a, b))) {
+                        continue;
+                    }
+                    
+                    Candidate candidate = compare(a, b);
+                    if (candidate != null) {
+                        candidates.add(candidate);
+                    }
+                }
+            }
+        }
+        
+        candidates.sort(Comparator.comparingDouble(Candidate::getScore).reversed()
+                .thenComparingInt(candidate -> candidate.getKept().getId()));
+        return new DuplicateOwnerReport(candidates, records.size(), blockCount, compared.size());
+    }
+    
+    /**
+     * Merge the duplicate of a reported pair into the kept owner, in one transaction
+     * @return Whether both owners still existed
+     */
+    public boolean merge(Candidate candidate) throws SQLException {
+        return ownerDAO.merge(candidate.getKept().getId(), candidate.getDuplicate().getId());
+    }
+    
+    /**
+     * Score a pair of owners; the older record is kept
+     * @return The pair, or null if it scores below the minimum
+     */
+    private Candidate compare(Record a, Record b) {
+        Set<Match> matches = EnumSet.noneOf(Match.class);
+        double score = 0;
+        
+        if (a.phone != null && a.phone.equals(b.phone)) {
+            score += PHONE_WEIGHT;
+            matches.add(Match.PHONE);
+        }
+        if (a.email != null && a.email.equals(b.email)) {
+            score += EMAIL_WEIGHT;
+            matches.add(Match.EMAIL);
+        }
+        if (a.postcode != null && a.postcode.equals(b.postcode)) {
+            score += POSTCODE_WEIGHT;
+            matches.add(Match.POSTCODE);
+        }
+        
+        // Skip the edit distance when even identical names would score too low
+        if (score + NAME_WEIGHT < minScore) {
+            return null;
+        }
+        
+        double nameSimilarity = Math.max(similarity(a.name, b.name), similarity(a.name, b.reversedName));
+        score += NAME_WEIGHT * nameSimilarity;
+        if (nameSimilarity >= SIMILAR_NAME) {
+            matches.add(Match.NAME);
+        }
+        
+        score = Math.min(score, 1.0);
+        if (score < minScore) {
+            return null;
+        }
+        
+        boolean aFirst = a.owner.getId() < b.owner.getId();
+        return new Candidate(aFirst ? a.owner : b.owner, aFirst ? b.owner : a.owner, score, matches);
+    }
+    
+    private static void addToBlock(Map<String, List<Record>> blocks, String prefix, String key, Record record) {
+        if (key != null && !key.isEmpty()) {
+            blocks.computeIfAbsent(prefix + key, k -> new ArrayList<>()).add(record);
+        }
+    }
+    
+    private static long pairKey(Record a, Record b) {
+        int low = Math.min(a.owner.getId(), b.owner.getId());
+        int high = Math.max(a.owner.getId(), b.owner.getId());
+        return ((long) low << 32) | (high & 0xffffffffL);
+    }
+    
+    /**
+     * Similarity of two strings from 0 to 1: one minus their edit distance over
+     * the length of the longer one
+     */
+    static double similarity(String a, String b) {
+        int length = Math.max(a.length(), b.length());
+        if (length == 0) {
+            return 0;
+        }
+        
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        
+        return 1.0 - (double) previous[b.length()] / length;
+    }
+    
+    /**
+     * Lower-case letters of a name without accents, words separated by one space
+     */
+    static String normalizeName(String name) {
+        if (name == null) {
+            return "";
+        }
+        
+        String letters = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return letters.toLowerCase(Locale.ROOT).replaceAll("[^a-z]+", " ").trim();
+    }
+    
+    /**
+     * Digits of a phone number in the national format, so "+33 6 12 34 56 78",
+     * "0033 (0)6..." and "06.12.34.56.78" are equal; null when too short to be one
+     */
+    static String normalizePhone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        
+        String digits = phone.replaceAll("\\D", "");
+        if (digits.startsWith("00")) {
+            digits = digits.substring(2);
+        } else if (!phone.trim().startsWith("+")) {
+            return digits.length() >= 6 ? digits : null;
+        }
+        
+        // International format: drop the country code and any trunk 0 after it
+        if (digits.startsWith("33")) {
+            digits = "0" + digits.substring(2).replaceFirst("^0", "");
+        }
+        return digits.length() >= 6 ? digits : null;
+    }
+    
+    /**
+     * Email in lower case without a "+tag" in its local part; null when not an address
+     */
+    static String normalizeEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        
+        String address = email.trim().toLowerCase(Locale.ROOT);
+        int at = address.indexOf('@');
+        if (at <= 0 || at == address.length() - 1) {
+            return null;
+        }
+        
+        String local = address.substring(0, at);
+        int tag = local.indexOf('+');
+        if (tag > 0) {
+            local = local.substring(0, tag);
+        }
+        return local + address.substring(at);
+    }
+    
+    /**
+     * Five-digit postcode found in an address, or null
+     */
+    static String extractPostcode(String address) {
+        if (address == null) {
+            return null;
+        }
+        
+        Matcher matcher = POSTCODE.matcher(address);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+    
+    /**
+     * American Soundex code of a normalized name: its first letter and the digits
+     * of the next consonant sounds, so "Dupont" and "Dupond" share a block
+     */
+    static String soundex(String name) {
+        String letters = name.replace(" ", "");
+        if (letters.isEmpty()) {
+            return null;
+        }
+        
+        // Digits of a to z; 0 for vowels, '-' for h and w which do not separate sounds
+        String codes = "0123012-02245501262301-202";
+        StringBuilder code = new StringBuilder().append(Character.toUpperCase(letters.charAt(0)));
+        char previous = codes.charAt(letters.charAt(0) - 'a');
+        
+        for (int i = 1; i < letters.length() && code.length() < 4; i++) {
+            char digit = codes.charAt(letters.charAt(i) - 'a');
+            if (digit == '-') {
+                continue;
+            }
+            if (digit != '0' && digit != previous) {
+                code.append(digit);
+            }
+            previous = digit;
+        }
+        
+        while (code.length() < 4) {
+            code.append('0');
+        }
+        return code.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.mis.api;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.mis.db.DatabaseConfig;
+import com.mis.db.TreatmentDAO;
+import com.mis.model.AdministerOutcome;
+import com.mis.model.Treatment;
+import com.mis.model.TreatmentProtocol;
+import com.mis.model.TreatmentType;
+
+/**
+ * Applies recurring treatment protocols. Protocols are looked up by treatment
+ * type and name; when a treatment following a protocol is administered, its
+ * next dose is created as a pending treatment in the same transaction.
+ *
+ * Protocols are read from the configuration, numbered from 1:
+ * <pre>
+ * protocol.1.type=VACCINE
+ * protocol.1.name=Rabies
+ * protocol.1.description=Rabies vaccine
+ * protocol.1.intervals=21,365*
+ * </pre>
+ * where intervals are the days between consecutive doses and a trailing '*'
+ * repeats the last interval.
+ */
+public class ProtocolEngine {
+    private final TreatmentDAO treatmentDAO;
+    private final Map<TreatmentType, Map<String, TreatmentProtocol>> protocols = new EnumMap<>(TreatmentType.class);
+    
+    public ProtocolEngine(TreatmentDAO treatmentDAO, Collection<TreatmentProtocol> protocols) {
+        this.treatmentDAO = treatmentDAO;
+        for (TreatmentProtocol protocol : protocols) {
+            this.protocols.computeIfAbsent(protocol.getType(), type -> new LinkedHashMap<>())
+                          .put(TreatmentProtocol.normalizeName(protocol.getName()), protocol);
+        }
+    }
+    
+    /**
+     * Read the protocols defined in the configuration; invalid ones are reported and skipped
+     */
+    public static List<TreatmentProtocol> readProtocols(DatabaseConfig config) {
+        List<TreatmentProtocol> protocols = new ArrayList<>();
+        
+        for (int i = 1; config.getString("protocol." + i + ".name", null) != null; i++) {
+            String prefix = "protocol." + i + ".";
+            try {
+                String intervals = config.getString(prefix + "intervals", "");
+                boolean repeatLast = intervals.endsWith("*");
+                if (repeatLast) {
+                    intervals = intervals.substring(0, intervals.length() - 1);
+                }
+                
+                List<Integer> days = new ArrayList<>();
+                for (String interval : intervals.split(",")) {
+                    if (!interval.trim().isEmpty()) {
+                        days.add(Integer.parseInt(interval.trim()));
+                    }
+                }
+                
+                protocols.add(new TreatmentProtocol(
+                        TreatmentType.valueOf(config.getString(prefix + "type", "")),
+                        config.getString(prefix + "name", null),
+                        config.getString(prefix + "description", null),
+                        days, repeatLast));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid treatment protocol " + i + ", ignored: " + e.getMessage());
+            }
+        }
+        
+        return protocols;
+    }
+    
+    /**
+     * Get the protocol a treatment follows, or null
+     */
+    public TreatmentProtocol find(TreatmentType type, String name) {
+        Map<String, TreatmentProtocol> byName = protocols.get(type);
+        if (byName == null || name == null) {
+            return null;
+        }
+        return byName.get(TreatmentProtocol.normalizeName(name));
+    }
+    
+    public TreatmentProtocol find(Treatment treatment) {
+        return find(treatment.getType(), treatment.getName());
+    }
+    
+    public List<TreatmentProtocol> getProtocols() {
+        List<TreatmentProtocol> all = new ArrayList<>();
+        for (Map<String, TreatmentProtocol> byName : protocols.values()) {
+            all.addAll(byName.values());
+        }
+        return all;
+    }
+    
+    /**
+     * Mark treatments as administered in one transaction. Treatments following a
+     * protocol get their next dose created as a pending treatment and keep no due
+     * date of their own; the others get the due date computed by {@code nextDueDate}.
+     * @return The outcome for each treatment ID
+     */
+    public Map<Integer, AdministerOutcome> administer(Collection<Integer> treatmentIds, LocalDate administeredOn,
+                                                      Function<Treatment, LocalDate> nextDueDate) throws SQLException {
+        return treatmentDAO.administerAll(treatmentIds, administeredOn,
+                treatment -> find(treatment) != null ? null : nextDueDate.apply(treatment),
+                this::nextDose);
+    }
+    
+    /**
+     * Schedule the first dose of a protocol for every animal of a species that
+     * has no dose of it pending
+     * @return The number of treatments created
+     */
+    public int applyToSpecies(TreatmentProtocol protocol, String species, LocalDate firstDueDate) throws SQLException {
+        return treatmentDAO.scheduleForSpecies(species, protocol.createDose(firstDueDate));
+    }
+    
+    /**
+     * Next dose of a just administered treatment, or null if it follows no
+     * protocol or its series is complete
+     */
+    private Treatment nextDose(Treatment administered, int doseNumber) {
+        TreatmentProtocol protocol = find(administered);
+        if (protocol == null) {
+            return null;
+        }
+        
+        LocalDate dueDate = protocol.nextDueDate(doseNumber, administered.getAdministrationDate());
+        return dueDate != null ? protocol.createDose(dueDate) : null;
+    }
+}
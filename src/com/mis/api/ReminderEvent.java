@@ -0,0 +1,64 @@
+package com.mis.api;
+
+import java.time.LocalDate;
+
+import com.mis.model.Treatment;
+import com.mis.model.TreatmentType;
+
+/**
+ * Reminder raised by the ReminderScheduler for one treatment
+ */
+public class ReminderEvent {
+    
+    public enum Kind {
+        /** Due within the scheduler's look-ahead window */
+        DUE_SOON,
+        /** Due date has passed */
+        OVERDUE
+    }
+    
+    private final Kind kind;
+    private final int treatmentId;
+    private final int animalId;
+    private final TreatmentType type;
+    private final String treatmentName;
+    private final LocalDate dueDate;
+    
+    public ReminderEvent(Kind kind, Treatment treatment) {
+        this.kind = kind;
+        this.treatmentId = treatment.getId();
+        this.animalId = treatment.getAnimalId();
+        this.type = treatment.getType();
+        this.treatmentName = treatment.getName();
+        this.dueDate = treatment.getNextDueDate();
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    public int getTreatmentId() {
+        return treatmentId;
+    }
+    
+    public int getAnimalId() {
+        return animalId;
+    }
+    
+    public TreatmentType getType() {
+        return type;
+    }
+    
+    public String getTreatmentName() {
+        return treatmentName;
+    }
+    
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+    
+    @Override
+    public String toString() {
+        return kind + ": " + treatmentName + " (" + type + ") for animal " + animalId + ", due " + dueDate;
+    }
+}
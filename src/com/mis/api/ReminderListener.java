@@ -0,0 +1,22 @@
+package com.mis.api;
+
+import java.util.List;
+
+/**
+ * Receives the reminders published by the ReminderScheduler, on the scheduler
+ * thread: Swing listeners must hand the work over to the Event Dispatch Thread
+ */
+public interface ReminderListener {
+    
+    /**
+     * New reminders raised by a check, never empty. A treatment is reported once
+     * when it becomes due soon and once more when it becomes overdue.
+     */
+    void remindersRaised(List<ReminderEvent> reminders);
+    
+    /**
+     * The number of overdue or due soon treatments changed
+     */
+    default void countsChanged(int overdueCount, int dueSoonCount) {
+    }
+}
@@ -0,0 +1,309 @@
+package com.mis.api;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.mis.db.TreatmentChangeListener;
+import com.mis.db.TreatmentDAO;
+import com.mis.model.Treatment;
+import com.mis.model.TreatmentType;
+
+/**
+ * Background service raising reminders for overdue and upcoming treatments.
+ *
+ * Only treatments already overdue or due before the look-ahead horizon are held
+ * in memory, in a priority queue ordered by the date their next reminder fires.
+ * Each check polls the head of the queue instead of rescanning the table; saved
+ * and deleted treatments are applied as TreatmentDAO reports them, and when the
+ * date changes at midnight only the day entering the horizon is read.
+ */
+public class ReminderScheduler implements TreatmentChangeListener {
+    
+    /**
+     * Next reminder of a treatment, stale once the treatment's due date changed
+     */
+    private static final class Entry {
+        private final LocalDate fireDate;
+        private final int treatmentId;
+        private final LocalDate dueDate;
+        
+        private Entry(LocalDate fireDate, int treatmentId, LocalDate dueDate) {
+            this.fireDate = fireDate;
+            this.treatmentId = treatmentId;
+            this.dueDate = dueDate;
+        }
+    }
+    
+    /**
+     * Treatment within the horizon and the last reminder raised for it
+     */
+    private static final class Tracked {
+        private final Treatment treatment;
+        private ReminderEvent.Kind notified;
+        
+        private Tracked(Treatment treatment) {
+            this.treatment = treatment;
+        }
+    }
+    
+    private final TreatmentDAO treatmentDAO;
+    private final Clock clock;
+    private final int dueSoonDays;
+    private final long checkIntervalSeconds;
+    private final List<ReminderListener> listeners = new CopyOnWriteArrayList<>();
+    
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(
+            Comparator.comparing((Entry entry) -> entry.fireDate).thenComparingInt(entry -> entry.treatmentId));
+    private final Map<Integer, Tracked> tracked = new HashMap<>();
+    
+    private ScheduledExecutorService executor;
+    private LocalDate today;
+    private LocalDate horizon;
+    private int overdueCount = -1;
+    private int dueSoonCount = -1;
+    
+    /**
+     * @param dueSoonDays Days ahead of its due date a treatment is reported as due soon
+     * @param checkIntervalSeconds Seconds between two checks
+     */
+    public ReminderScheduler(int dueSoonDays, long checkIntervalSeconds) {
+        this(new TreatmentDAO(), Clock.systemDefaultZone(), dueSoonDays, checkIntervalSeconds);
+    }
+    
+    public ReminderScheduler(TreatmentDAO treatmentDAO, Clock clock, int dueSoonDays, long checkIntervalSeconds) {
+        this.treatmentDAO = treatmentDAO;
+        this.clock = clock;
+        this.dueSoonDays = dueSoonDays;
+        this.checkIntervalSeconds = checkIntervalSeconds;
+    }
+    
+    public void addListener(ReminderListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(ReminderListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Load the treatments to watch and start the periodic checks on a daemon thread
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "treatment-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TreatmentDAO.addChangeListener(this);
+        executor.scheduleWithFixedDelay(this::check, 0, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        
+        TreatmentDAO.removeChangeListener(this);
+        executor.shutdownNow();
+        executor = null;
+    }
+    
+    public synchronized int getOverdueCount() {
+        return Math.max(overdueCount, 0);
+    }
+    
+    public synchronized int getDueSoonCount() {
+        return Math.max(dueSoonCount, 0);
+    }
+    
+    /**
+     * Evaluate the reminders due today and publish the new ones. Runs on the
+     * scheduler thread, and right after each committed treatment change.
+     */
+    public void check() {
+        List<ReminderEvent> raised = new ArrayList<>();
+        boolean countsChanged;
+        int overdue;
+        int dueSoon;
+        
+        synchronized (this) {
+            try {
+                advanceTo(LocalDate.now(clock));
+            } catch (SQLException e) {
+                // Keep the current state, the next check retries
+                e.printStackTrace();
+                return;
+            }
+            
+            while (!queue.isEmpty() && !queue.peek().fireDate.isAfter(today)) {
+                Entry entry = queue.poll();
+                Tracked current = tracked.get(entry.treatmentId);
+                if (current == null || !entry.dueDate.equals(current.treatment.getNextDueDate())) {
+                    continue;
+                }
+                
+                ReminderEvent.Kind kind = entry.dueDate.isBefore(today) ? ReminderEvent.Kind.OVERDUE
+                                                                         : ReminderEvent.Kind.DUE_SOON;
+                if (current.notified != kind) {
+                    current.notified = kind;
+                    raised.add(new ReminderEvent(kind, current.treatment));
+                }
+                if (kind == ReminderEvent.Kind.DUE_SOON) {
+                    // Fire again the day after the due date
+                    queue.add(new Entry(entry.dueDate.plusDays(1), entry.treatmentId, entry.dueDate));
+                }
+            }
+            
+            overdue = 0;
+            dueSoon = 0;
+            for (Tracked current : tracked.values()) {
+                if (current.treatment.getNextDueDate().isBefore(today)) {
+                    overdue++;
+                } else {
+                    dueSoon++;
+                }
+            }
+            countsChanged = overdue != overdueCount || dueSoon != dueSoonCount;
+            overdueCount = overdue;
+            dueSoonCount = dueSoon;
+        }
+        
+        for (ReminderListener listener : listeners) {
+            try {
+                if (!raised.isEmpty()) {
+                    listener.remindersRaised(raised);
+                }
+                if (countsChanged) {
+                    listener.countsChanged(overdue, dueSoon);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    @Override
+    public void treatmentSaved(Treatment treatment) {
+        synchronized (this) {
+            if (today == null) {
+                return;
+            }
+            track(treatment);
+        }
+        scheduleCheck();
+    }
+    
+    @Override
+    public void treatmentDeleted(int treatmentId) {
+        synchronized (this) {
+            tracked.remove(treatmentId);
+        }
+        scheduleCheck();
+    }
+    
+    @Override
+    public void animalTreatmentsDeleted(int animalId) {
+        synchronized (this) {
+            tracked.values().removeIf(current -> current.treatment.getAnimalId() == animalId);
+        }
+        scheduleCheck();
+    }
+    
+    /**
+     * Move the watched window to the given day: the first call loads the overdue
+     * treatments and those due up to the horizon, later calls only read the days
+     * that entered the horizon since the previous one
+     */
+    private void advanceTo(LocalDate day) throws SQLException {
+        if (day.equals(today)) {
+            return;
+        }
+        
+        LocalDate newHorizon = day.plusDays(dueSoonDays);
+        if (today == null || day.isBefore(today)) {
+            // First check, or the clock went back: start over
+            tracked.clear();
+            queue.clear();
+            for (Treatment treatment : treatmentDAO.getOverdue()) {
+                track(treatment, newHorizon);
+            }
+            loadDue(day, newHorizon);
+        } else if (newHorizon.isAfter(horizon)) {
+            loadDue(horizon.plusDays(1), newHorizon);
+        }
+        
+        today = day;
+        horizon = newHorizon;
+    }
+    
+    private void loadDue(LocalDate from, LocalDate to) throws SQLException {
+        for (Map<TreatmentType, List<Treatment>> day : treatmentDAO.dueBetween(from, to).values()) {
+            for (List<Treatment> treatments : day.values()) {
+                for (Treatment treatment : treatments) {
+                    track(treatment, to);
+                }
+            }
+        }
+    }
+    
+    private void track(Treatment treatment) {
+        track(treatment, horizon);
+    }
+    
+    /**
+     * Watch a treatment if it is due before the horizon, forget it otherwise
+     */
+    private void track(Treatment treatment, LocalDate limit) {
+        LocalDate dueDate = treatment.getNextDueDate();
+        if (dueDate == null || dueDate.isAfter(limit)) {
+            tracked.remove(treatment.getId());
+            return;
+        }
+        
+        Tracked previous = tracked.get(treatment.getId());
+        Tracked current = new Tracked(treatment);
+        if (previous != null && dueDate.equals(previous.treatment.getNextDueDate())) {
+            current.notified = previous.notified;
+        }
+        tracked.put(treatment.getId(), current);
+        queue.add(new Entry(dueDate.minusDays(dueSoonDays), treatment.getId(), dueDate));
+        
+        // Drop queue entries left behind by forgotten treatments once they pile up
+        if (queue.size() > 2 * tracked.size() + 64) {
+            purgeStaleEntries();
+        }
+    }
+    
+    private void purgeStaleEntries() {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            Tracked current = tracked.get(entry.treatmentId);
+            if (current == null || !entry.dueDate.equals(current.treatment.getNextDueDate())) {
+                iterator.remove();
+            }
+        }
+    }
+    
+    private synchronized void scheduleCheck() {
+        if (executor != null) {
+            executor.execute(this::check);
+        }
+    }
+}
@@ -7,82 +7,148 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.mis.model.Animal;
+import com.mis.model.AnimalFacets;
 import com.mis.model.Box;
+import com.mis.model.BoxStatus;
 import com.mis.model.Owner;
 import com.mis.model.Treatment;
+import com.mis.model.TreatmentType;
 
 /**
  * Data Access Object for Animal entities
  */
 public class AnimalDAO {
-    private Connection connection;
+    private static final AnimalFacetCache FACETS = new AnimalFacetCache();
+    
+    private ConnectionPool pool;
     private TreatmentDAO treatmentDAO;
     private BoxDAO boxDAO;
     private OwnerDAO ownerDAO;
     
     public AnimalDAO() {
-        this.connection = DatabaseConnection.getInstance().getConnection();
+        this.pool = DatabaseConnection.getInstance().getPool();
         this.treatmentDAO = new TreatmentDAO();
         this.boxDAO = new BoxDAO();
         this.ownerDAO = new OwnerDAO();
     }
     
+    // The box is not inserted: it is claimed afterwards like any other placement
+    private static final String INSERT_QUERY = "INSERT INTO animals (name, species, breed, birth_date, gender, size, owner_id) " +
+                       "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    
     /**
-     * Save a new animal to the database
+     * Save a new animal and its treatments to the database in one transaction.
+     * If the animal has a box, the box is claimed in the same transaction like
+     * in BoxDAO.assign, and nothing is saved when it is not available.
      */
     public int save(Animal animal) throws SQLException {
-        String query = "INSERT INTO animals (name, species, breed, birth_date, gender, size, owner_id, box_id) " +
-                       "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, animal.getName());
-            stmt.setString(2, animal.getSpecies());
-            stmt.setString(3, animal.getBreed());
-            stmt.setString(4, animal.getBirthDate() != null ? animal.getBirthDate().toString() : null);
-            stmt.setString(5, animal.getGender());
-            stmt.setString(6, animal.getSize());
-            
-            // Set owner ID if available
-            if (animal.getOwner() != null) {
-                stmt.setInt(7, animal.getOwner().getId());
-            } else {
-                stmt.setNull(7, java.sql.Types.INTEGER);
+        return pool.inTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+                bindInsert(stmt, animal);
+                
+                int affectedRows = stmt.executeUpdate();
+                
+                if (affectedRows == 0) {
+                    throw new SQLException("Creating animal failed, no rows affected.");
+                }
+                
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        int animalId = generatedKeys.getInt(1);
+                        animal.setId(animalId);
+                        
+                        // Save treatments if available
+                        if (animal.getTreatments() != null && !animal.getTreatments().isEmpty()) {
+                            treatmentDAO.saveAll(animalId, animal.getTreatments());
+                        }
+                        
+                        if (animal.getBox() != null) {
+                            try {
+                                boxDAO.placeNewAnimal(connection, animalId, animal.getBox().getId());
+                            } catch (SQLException e) {
+                                animal.setId(0);
+                                throw e;
+                            }
+                        }
+                        
+                        publishFacets(connection, "a.id = ?", animalId);
+                        return animalId;
+                    } else {
+                        throw new SQLException("Creating animal failed, no ID obtained.");
+                    }
+                }
             }
-            
-            // Set box ID if available
-            if (animal.getBox() != null) {
-                stmt.setInt(8, animal.getBox().getId());
-            } else {
-                stmt.setNull(8, java.sql.Types.INTEGER);
+        });
+    }
+    
+    /**
+     * Save several new animals and all their treatments with batched statements
+     * in a single transaction. Boxes are claimed like in {@link #save(Animal)};
+     * if one of them is not available, none of the animals is saved.
+     * @return The generated animal IDs, in list order
+     */
+    public List<Integer> saveAll(List<Animal> animals) throws SQLException {
+        if (animals.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        return pool.inTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_QUERY)) {
+                for (int i = 0; i < animals.size(); i++) {
+                    bindInsert(stmt, animals.get(i));
+                    stmt.addBatch();
+                    
+                    if ((i + 1) % SqlUtils.BATCH_SIZE == 0) {
+                        SqlUtils.checkBatch(stmt.executeBatch(), "animal");
+                    }
+                }
+                SqlUtils.checkBatch(stmt.executeBatch(), "animal");
             }
             
-            int affectedRows = stmt.executeUpdate();
+            List<Integer> ids = SqlUtils.lastInsertedIds(connection, animals.size());
             
-            if (affectedRows == 0) {
-                throw new SQLException("Creating animal failed, no rows affected.");
+            // Then all treatments of the batch in one statement batch
+            List<Treatment> treatments = new ArrayList<>();
+            List<Integer> treatmentAnimalIds = new ArrayList<>();
+            for (int i = 0; i < animals.size(); i++) {
+                Animal animal = animals.get(i);
+                animal.setId(ids.get(i));
+                
+                if (animal.getTreatments() != null) {
+                    for (Treatment treatment : animal.getTreatments()) {
+                        treatments.add(treatment);
+                        treatmentAnimalIds.add(animal.getId());
+                    }
+                }
             }
             
-            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int animalId = generatedKeys.getInt(1);
-                    animal.setId(animalId);
-                    
-                    // Save treatments if available
-                    if (animal.getTreatments() != null && !animal.getTreatments().isEmpty()) {
-                        for (Treatment treatment : animal.getTreatments()) {
-                            treatment.setId(treatmentDAO.save(animalId, treatment));
-                        }
+            treatmentDAO.saveAll(treatmentAnimalIds.stream().mapToInt(Integer::intValue).toArray(), treatments);
+            
+            try {
+                for (Animal animal : animals) {
+                    if (animal.getBox() != null) {
+                        boxDAO.placeNewAnimal(connection, animal.getId(), animal.getBox().getId());
                     }
-                    
-                    return animalId;
-                } else {
-                    throw new SQLException("Creating animal failed, no ID obtained.");
                 }
+            } catch (SQLException e) {
+                animals.forEach(animal -> animal.setId(0));
+                throw e;
             }
-        }
+            
+            // The IDs of one batch insert are consecutive
+            publishFacets(connection, "a.id BETWEEN ? AND ?", ids.get(0), ids.get(ids.size() - 1));
+            return ids;
+        });
     }
     
     /**
@@ -91,7 +157,8 @@ public class AnimalDAO {
     public Animal getById(int id) throws SQLException {
         String query = "SELECT * FROM animals WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -113,53 +180,232 @@ public class AnimalDAO {
      * Get all animals
      */
     public List<Animal> getAll() throws SQLException {
-        String query = "SELECT * FROM animals";
-        List<Animal> animals = new ArrayList<>();
+        return loadGraph("1 = 1");
+    }
+    
+    /**
+     * Get the next page of animals, ordered by ID, with their owners, boxes and
+     * treatments. Seeks past the previous page through the primary key, so every
+     * page costs the same however deep it is.
+     * @param afterId ID of the last animal of the previous page, 0 for the first page
+     * @param limit Maximum number of animals to return
+     */
+    public List<Animal> getPage(int afterId, int limit) throws SQLException {
+        return loadGraph("id IN (SELECT id FROM animals WHERE id > ? ORDER BY id LIMIT ?)", afterId, limit);
+    }
+    
+    /**
+     * Get the total number of animals
+     */
+    public int count() throws SQLException {
+        return SqlUtils.count(pool, "animals");
+    }
+    
+    /**
+     * Stream every animal, ordered by ID, with its owner, box and treatments.
+     * Animals and treatments are read from two forward-only cursors walked side
+     * by side, so memory use does not grow with the size of the tables; owners
+     * and boxes come from the DAO caches. Close the stream when done.
+     */
+    public Stream<Animal> stream() throws SQLException {
+        Stream<Treatment> treatments = treatmentDAO.stream();
+        Stream<Animal> animals;
+        try {
+            animals = SqlUtils.stream(pool, "SELECT * FROM animals ORDER BY id", this::mapResultSetToAnimal);
+        } catch (SQLException | RuntimeException e) {
+            treatments.close();
+            throw e;
+        }
         
+        TreatmentCursor cursor = new TreatmentCursor(treatments.iterator());
+        return animals.map(animal -> {
+            animal.setTreatments(cursor.takeFor(animal.getId()));
+            return animal;
+        }).onClose(treatments::close);
+    }
+    
+    /**
+     * Pass every animal to the action, in the order of {@link #stream()}
+     */
+    public void forEach(Consumer<Animal> action) throws SQLException {
+        try (Stream<Animal> animals = stream()) {
+            animals.forEach(action);
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Get the animals that are not in a box
+     */
+    public List<Animal> getAllWithoutBox() throws SQLException {
+        return loadGraph("box_id IS NULL");
+    }
+    
+    /**
+     * Get the filterable values of every animal, ordered by ID like the pages of
+     * {@link #getPage(int, int)}. They are kept in memory: the first call of the
+     * day reads them, in one query joining the boxes and checking the vaccines
+     * through idx_treatments_animal_id, and writes update the animals they touch.
+     * Later calls only count the animals, and read them all again when another
+     * station inserted or deleted some.
+     */
+    public List<AnimalFacets> getAllFacets() throws SQLException {
+        LocalDate today = LocalDate.now();
+        long version = FACETS.getVersion();
+        List<AnimalFacets> facets;
+        try (Connection connection = pool.getReadConnection()) {
+            List<AnimalFacets> cached = FACETS.getAll(today);
+            // Animals inserted or deleted by another station only show in the database
+            if (cached != null && FACETS.matches(countAndMaxId(connection))) {
+                return cached;
+            }
+            facets = readFacets(connection, null, today);
+        }
+        FACETS.load(facets, today, version);
+        return facets;
+    }
+    
+    /**
+     * Number of animals and their highest ID, as a cheap marker of the rows
+     * inserted or deleted since the facets were loaded
+     */
+    private static int[] countAndMaxId(Connection connection) throws SQLException {
         try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COALESCE(MAX(id), 0) FROM animals")) {
+            rs.next();
+            return new int[] { rs.getInt(1), rs.getInt(2) };
+        }
+    }
+    
+    /**
+     * Get the in-memory facets of the animals
+     */
+    public static AnimalFacetCache getFacetCache() {
+        return FACETS;
+    }
+    
+    /**
+     * Read back the facets of the animals matching a condition after a write in
+     * the caller's transaction, and record them once it commits. Nothing is read
+     * while the facets are not loaded.
+     * @param where Condition on the animals, aliased a
+     */
+    static void publishFacets(Connection connection, String where, Object... params) throws SQLException {
+        ConnectionPool pool = DatabaseConnection.getInstance().getPool();
+        LocalDate today = LocalDate.now();
+        if (!FACETS.isLoaded(today)) {
+            // Still changes the version, so a load running meanwhile is not kept
+            pool.afterCommit(FACETS::invalidate);
+            return;
+        }
+        
+        for (AnimalFacets animal : readFacets(connection, where, today, params)) {
+            pool.afterCommit(() -> FACETS.put(animal));
+        }
+    }
+    
+    /**
+     * Publish the facets of the given animals like {@link #publishFacets(Connection, String, Object...)}
+     */
+    static void publishFacets(Connection connection, Collection<Integer> animalIds) throws SQLException {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(animalIds));
+        for (int start = 0; start < ids.size(); start += SqlUtils.MAX_PARAMETERS) {
+            List<Integer> chunk = ids.subList(start, Math.min(start + SqlUtils.MAX_PARAMETERS, ids.size()));
+            publishFacets(connection, "a.id IN (" + SqlUtils.placeholders(chunk.size()) + ")", chunk.toArray());
+        }
+    }
+    
+    /**
+     * Read the facets of the animals matching a condition, ordered by ID
+     * @param where Condition on the animals, aliased a, or null for every animal
+     */
+    private static List<AnimalFacets> readFacets(Connection connection, String where, LocalDate today,
+                                                 Object... params) throws SQLException {
+        String query = "SELECT a.id, a.species, a.size, b.status AS box_status, " +
+                       "EXISTS (SELECT 1 FROM treatments t WHERE t.animal_id = a.id AND t.type = ? " +
+                       "AND t." + TreatmentDAO.OVERDUE_CONDITION + ") AS vaccine_overdue " +
+                       "FROM animals a LEFT JOIN boxes b ON b.id = a.box_id" +
+                       (where != null ? " WHERE " + where : "") + " ORDER BY a.id";
+        List<AnimalFacets> facets = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, TreatmentType.VACCINE.toString());
+            stmt.setLong(2, today.toEpochDay());
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 3, params[i]);
+            }
             
-            while (rs.next()) {
-                Animal animal = mapResultSetToAnimal(rs);
-                
-                // Get treatments
-                animal.setTreatments(treatmentDAO.getAllByAnimalId(animal.getId()));
-                
-                animals.add(animal);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String boxStatus = rs.getString("box_status");
+                    facets.add(new AnimalFacets(rs.getInt("id"), rs.getString("species"), rs.getString("size"),
+                            boxStatus != null ? BoxStatus.valueOf(boxStatus) : null,
+                            !rs.getBoolean("vaccine_overdue")));
+                }
             }
         }
         
-        return animals;
+        return facets;
     }
     
     /**
-     * Get all animals that have overdue treatments
+     * Get the animals with the given IDs, in the order of the list
      */
-    public List<Animal> getAllWithOverdueTreatments() throws SQLException {
-        List<Animal> allAnimals = getAll();
-        List<Animal> animalsWithOverdueTreatments = new ArrayList<>();
+    public List<Animal> getAllByIds(List<Integer> ids) throws SQLException {
+        List<Animal> animals = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return animals;
+        }
         
-        for (Animal animal : allAnimals) {
-            if (!animal.getOverdueTreatments().isEmpty()) {
-                animalsWithOverdueTreatments.add(animal);
+        Map<Integer, Animal> byId = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += SqlUtils.MAX_PARAMETERS) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + SqlUtils.MAX_PARAMETERS, ids.size()));
+            for (Animal animal : loadGraph("id IN (" + SqlUtils.placeholders(chunk.size()) + ")", chunk.toArray())) {
+                byId.put(animal.getId(), animal);
             }
         }
         
-        return animalsWithOverdueTreatments;
+        for (Integer id : ids) {
+            Animal animal = byId.get(id);
+            if (animal != null) {
+                animals.add(animal);
+            }
+        }
+        return animals;
     }
     
     /**
-     * Update an animal in the database
+     * Get the animals of an owner, read only when they are displayed
+     */
+    public List<Animal> getAllByOwner(int ownerId) throws SQLException {
+        return loadGraph("owner_id = ?", ownerId);
+    }
+    
+    /**
+     * Get all animals that have overdue treatments
+     */
+    public List<Animal> getAllWithOverdueTreatments() throws SQLException {
+        // Range scan of idx_treatments_next_due_date, then only the affected animals are loaded
+        return loadGraph("id IN (SELECT animal_id FROM treatments WHERE " + TreatmentDAO.OVERDUE_CONDITION + ")",
+                LocalDate.now().toEpochDay());
+    }
+    
+    /**
+     * Update an animal in the database. Its box is not written: placements only
+     * change through BoxDAO.assign and BoxDAO.release, so an edit based on a
+     * stale copy cannot undo a placement made meanwhile.
      */
     public boolean update(Animal animal) throws SQLException {
         String query = "UPDATE animals SET name = ?, species = ?, breed = ?, birth_date = ?, " +
-                      "gender = ?, size = ?, owner_id = ?, box_id = ? WHERE id = ?";
+                      "gender = ?, size = ?, owner_id = ? WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, animal.getName());
             stmt.setString(2, animal.getSpecies());
             stmt.setString(3, animal.getBreed());
-            stmt.setString(4, animal.getBirthDate() != null ? animal.getBirthDate().toString() : null);
+            SqlUtils.setDate(stmt, 4, animal.getBirthDate());
             stmt.setString(5, animal.getGender());
             stmt.setString(6, animal.getSize());
             
@@ -170,52 +416,134 @@ public class AnimalDAO {
                 stmt.setNull(7, java.sql.Types.INTEGER);
             }
             
-            // Set box ID if available
-            if (animal.getBox() != null) {
-                stmt.setInt(8, animal.getBox().getId());
-            } else {
-                stmt.setNull(8, java.sql.Types.INTEGER);
-            }
-            
-            stmt.setInt(9, animal.getId());
+            stmt.setInt(8, animal.getId());
             
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                boxDAO.occupantUpdated(animal);
+                publishFacets(connection, "a.id = ?", animal.getId());
+            }
+            return updated;
         }
     }
     
     /**
-     * Delete an animal from the database
+     * Delete an animal from the database, with its treatments, and free its box,
+     * in one transaction
      */
     public boolean delete(int id) throws SQLException {
-        // First delete all treatments for this animal
-        treatmentDAO.deleteAllByAnimalId(id);
+        return pool.inTransaction(connection -> {
+            // First delete all treatments for this animal and release its box
+            treatmentDAO.deleteAllByAnimalId(id);
+            boxDAO.release(id);
+            
+            String query = "DELETE FROM animals WHERE id = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, id);
+                
+                boolean deleted = stmt.executeUpdate() > 0;
+                if (deleted) {
+                    pool.afterCommit(() -> FACETS.remove(id));
+                }
+                return deleted;
+            }
+        });
+    }
+    
+    /**
+     * Bind the columns of the INSERT statement
+     */
+    private void bindInsert(PreparedStatement stmt, Animal animal) throws SQLException {
+        stmt.setString(1, animal.getName());
+        stmt.setString(2, animal.getSpecies());
+        stmt.setString(3, animal.getBreed());
+        SqlUtils.setDate(stmt, 4, animal.getBirthDate());
+        stmt.setString(5, animal.getGender());
+        stmt.setString(6, animal.getSize());
         
-        String query = "DELETE FROM animals WHERE id = ?";
+        // Set owner ID if available
+        if (animal.getOwner() != null) {
+            stmt.setInt(7, animal.getOwner().getId());
+        } else {
+            stmt.setNull(7, java.sql.Types.INTEGER);
+        }
+
+    }
+    
+    /**
+     * Load the animals matching the given WHERE clause together with their owners,
+     * boxes and treatments. Related rows are fetched with one set-based query per
+     * table instead of one query per animal, and owners and boxes referenced by
+     * several animals are shared by identity.
+     */
+    private List<Animal> loadGraph(String where, Object... params) throws SQLException {
+        String query = "SELECT * FROM animals WHERE " + where + " ORDER BY id";
+        List<Animal> animals = new ArrayList<>();
+        Map<Animal, Integer> ownerIds = new HashMap<>();
+        Map<Animal, Integer> boxIds = new HashMap<>();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, id);
+        // Hold one connection for the whole load so the nested DAO calls share it
+        try (Connection connection = pool.getReadConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                SqlUtils.setParameters(stmt, params);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Animal animal = mapAnimalColumns(rs);
+                        
+                        int ownerId = rs.getInt("owner_id");
+                        if (!rs.wasNull()) {
+                            ownerIds.put(animal, ownerId);
+                        }
+                        
+                        int boxId = rs.getInt("box_id");
+                        if (!rs.wasNull()) {
+                            boxIds.put(animal, boxId);
+                        }
+                        
+                        animals.add(animal);
+                    }
+                }
+            }
+            
+            if (animals.isEmpty()) {
+                return animals;
+            }
             
-            return stmt.executeUpdate() > 0;
+            Map<Integer, Owner> owners = ownerIds.isEmpty() ? new HashMap<>() :
+                    ownerDAO.getByIdQuery("SELECT owner_id FROM animals WHERE " + where, params);
+            Map<Integer, Box> boxes = boxIds.isEmpty() ? new HashMap<>() :
+                    boxDAO.getByIdQuery("SELECT box_id FROM animals WHERE " + where, params);
+            Map<Integer, List<Treatment>> treatments =
+                    treatmentDAO.getAllByAnimalIdQuery("SELECT id FROM animals WHERE " + where, params);
+            
+            for (Animal animal : animals) {
+                Integer ownerId = ownerIds.get(animal);
+                if (ownerId != null) {
+                    animal.setOwner(owners.get(ownerId));
+                }
+                
+                Integer boxId = boxIds.get(animal);
+                if (boxId != null) {
+                    animal.setBox(boxes.get(boxId));
+                }
+                
+                List<Treatment> animalTreatments = treatments.get(animal.getId());
+                if (animalTreatments != null) {
+                    animal.setTreatments(animalTreatments);
+                }
+            }
         }
+        
+        return animals;
     }
     
     /**
      * Map a ResultSet row to an Animal object
      */
     private Animal mapResultSetToAnimal(ResultSet rs) throws SQLException {
-        Animal animal = new Animal();
-        animal.setId(rs.getInt("id"));
-        animal.setName(rs.getString("name"));
-        animal.setSpecies(rs.getString("species"));
-        animal.setBreed(rs.getString("breed"));
-        
-        String birthDateStr = rs.getString("birth_date");
-        if (birthDateStr != null && !birthDateStr.isEmpty()) {
-            animal.setBirthDate(LocalDate.parse(birthDateStr));
-        }
-        
-        animal.setGender(rs.getString("gender"));
-        animal.setSize(rs.getString("size"));
+        Animal animal = mapAnimalColumns(rs);
         
         // Get owner if available
         int ownerId = rs.getInt("owner_id");
@@ -233,4 +561,55 @@ public class AnimalDAO {
         
         return animal;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Map the columns of the animals table, without resolving owner and box
+     */
+    private Animal mapAnimalColumns(ResultSet rs) throws SQLException {
+        Animal animal = new Animal();
+        animal.setId(rs.getInt("id"));
+        animal.setName(rs.getString("name"));
+        animal.setSpecies(rs.getString("species"));
+        animal.setBreed(rs.getString("breed"));
+        animal.setBirthDate(SqlUtils.getDate(rs, "birth_date"));
+        animal.setGender(rs.getString("gender"));
+        animal.setSize(rs.getString("size"));
+        
+        return animal;
+    }
+    
+    /**
+     * Walks treatments ordered by animal ID alongside animals ordered by ID
+     */
+    private static final class TreatmentCursor {
+        private final Iterator<Treatment> treatments;
+        private Treatment next;
+        
+        private TreatmentCursor(Iterator<Treatment> treatments) {
+            this.treatments = treatments;
+        }
+        
+        /**
+         * Collect the treatments of an animal, skipping those of animals that no
+         * longer exist. Animal IDs must be requested in increasing order.
+         */
+        private List<Treatment> takeFor(int animalId) {
+            List<Treatment> result = new ArrayList<>();
+            
+            while (next != null || treatments.hasNext()) {
+                if (next == null) {
+                    next = treatments.next();
+                }
+                if (next.getAnimalId() > animalId) {
+                    break;
+                }
+                if (next.getAnimalId() == animalId) {
+                    result.add(next);
+                }
+                next = null;
+            }
+            
+            return result;
+        }
+    }
+}
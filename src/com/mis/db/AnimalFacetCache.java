@@ -0,0 +1,103 @@
+package com.mis.db;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.mis.model.AnimalFacets;
+
+/**
+ * In-memory copy of the filterable values of every animal, ordered by ID like
+ * the pages of the animal list, so the list does not read them from the
+ * database each time it is shown.
+ *
+ * The cache starts unloaded; AnimalDAO fills it on first use and keeps it up to
+ * date as animals, boxes and treatments are written. Whether a vaccine is
+ * overdue depends on the day, so the cache is reloaded once the date changes.
+ * Animals inserted or deleted by another station are noticed by comparing the
+ * number of animals and the highest ID with the database on each use.
+ */
+public class AnimalFacetCache {
+    private final TreeMap<Integer, AnimalFacets> facets = new TreeMap<>();
+    
+    private boolean loaded;
+    private LocalDate loadedOn;
+    // Incremented on every change, so a load that raced with a write is detected
+    private long version;
+    
+    /**
+     * Get the facets of every animal, ordered by ID
+     * @return The facets, or null if the cache is not loaded for that day
+     */
+    public synchronized List<AnimalFacets> getAll(LocalDate day) {
+        return isLoaded(day) ? new ArrayList<>(facets.values()) : null;
+    }
+    
+    public synchronized boolean isLoaded(LocalDate day) {
+        return loaded && day.equals(loadedOn);
+    }
+    
+    public synchronized int size() {
+        return facets.size();
+    }
+    
+    /**
+     * Whether the cache holds as many animals as the database, with the same
+     * highest ID
+     * @param countAndMaxId Number of animals in the database and their highest ID
+     */
+    synchronized boolean matches(int[] countAndMaxId) {
+        int maxId = facets.isEmpty() ? 0 : facets.lastKey();
+        return facets.size() == countAndMaxId[0] && maxId == countAndMaxId[1];
+    }
+    
+    synchronized long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Replace the whole cache with the facets read from the database on the given
+     * day, unless the cache changed since {@code expectedVersion} was read
+     * @return Whether the cache is now loaded
+     */
+    synchronized boolean load(List<AnimalFacets> all, LocalDate day, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        
+        facets.clear();
+        for (AnimalFacets animal : all) {
+            facets.put(animal.getAnimalId(), animal);
+        }
+        loaded = true;
+        loadedOn = day;
+        return true;
+    }
+    
+    /**
+     * Record the facets of an animal read after a write
+     */
+    synchronized void put(AnimalFacets animal) {
+        version++;
+        if (loaded) {
+            facets.put(animal.getAnimalId(), animal);
+        }
+    }
+    
+    synchronized void remove(int animalId) {
+        version++;
+        if (loaded) {
+            facets.remove(animalId);
+        }
+    }
+    
+    /**
+     * Drop the whole cache; it is reloaded on next use
+     */
+    synchronized void invalidate() {
+        version++;
+        loaded = false;
+        facets.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package com.mis.db;
+
+import com.mis.model.Box;
+
+/**
+ * Notified by BoxDAO after a transaction writing boxes or placements commits,
+ * on the thread that ran the write
+ */
+public interface BoxChangeListener {
+    
+    /**
+     * A box was created or updated, or an animal was placed in or taken out of it
+     */
+    void boxSaved(Box box);
+    
+    /**
+     * A box was deleted
+     */
+    void boxDeleted(int boxId);
+}
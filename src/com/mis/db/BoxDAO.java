@@ -6,19 +6,42 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import com.mis.model.Animal;
 import com.mis.model.Box;
+import com.mis.model.BoxAssignmentOutcome;
 import com.mis.model.BoxStatus;
 
 /**
  * Data Access Object for Box entities
  */
 public class BoxDAO {
-    private Connection connection;
+    private static final EntityCache<Box> CACHE = new EntityCache<>(
+            DatabaseConnection.getInstance().getConfig().getInt("cache.boxes.maxSize", 1000), BoxDAO::copyOf);
+    private static final FreeBoxIndex FREE_INDEX = new FreeBoxIndex();
+    private static final boolean FREE_INDEX_ENABLED =
+            DatabaseConnection.getInstance().getConfig().getBoolean("index.freeBoxes.enabled", true);
+    private static final BoxOccupancy OCCUPANCY = new BoxOccupancy();
+    private static final List<BoxChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+    
+    /** Attempts of an assignment transaction while the database is busy */
+    private static final int MAX_ATTEMPTS = 5;
+    private static final AtomicLong ASSIGNMENTS = new AtomicLong();
+    private static final AtomicLong CONFLICTS = new AtomicLong();
+    
+    private ConnectionPool pool;
     
     public BoxDAO() {
-        this.connection = DatabaseConnection.getInstance().getConnection();
+        this.pool = DatabaseConnection.getInstance().getPool();
     }
     
     /**
@@ -27,7 +50,8 @@ public class BoxDAO {
     public int save(Box box) throws SQLException {
         String query = "INSERT INTO boxes (name, location, size, status) VALUES (?, ?, ?, ?)";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, box.getName());
             stmt.setString(2, box.getLocation());
             stmt.setString(3, box.getSize());
@@ -43,6 +67,8 @@ public class BoxDAO {
                 if (generatedKeys.next()) {
                     int boxId = generatedKeys.getInt(1);
                     box.setId(boxId);
+                    invalidate(boxId);
+                    publishSaved(box);
                     return boxId;
                 } else {
                     throw new SQLException("Creating box failed, no ID obtained.");
@@ -55,14 +81,23 @@ public class BoxDAO {
      * Get a box by ID
      */
     public Box getById(int id) throws SQLException {
+        Box cached = CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        
         String query = "SELECT * FROM boxes WHERE id = ?";
+        long generation = CACHE.getGeneration();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapResultSetToBox(rs);
+                    Box box = mapResultSetToBox(rs);
+                    CACHE.put(id, box, generation);
+                    return box;
                 }
             }
         }
@@ -77,7 +112,8 @@ public class BoxDAO {
         String query = "SELECT * FROM boxes";
         List<Box> boxes = new ArrayList<>();
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = pool.getReadConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             
             while (rs.next()) {
@@ -88,6 +124,61 @@ public class BoxDAO {
         return boxes;
     }
     
+    /**
+     * Get the next page of boxes, ordered by ID
+     * @param afterId ID of the last box of the previous page, 0 for the first page
+     * @param limit Maximum number of boxes to return
+     */
+    public List<Box> getPage(int afterId, int limit) throws SQLException {
+        String query = "SELECT * FROM boxes WHERE id > ? ORDER BY id LIMIT ?";
+        List<Box> boxes = new ArrayList<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    boxes.add(mapResultSetToBox(rs));
+                }
+            }
+        }
+        
+        return boxes;
+    }
+    
+    /**
+     * Get the total number of boxes
+     */
+    public int count() throws SQLException {
+        return SqlUtils.count(pool, "boxes");
+    }
+    
+    /**
+     * Get the boxes whose IDs are returned by the given sub-query, keyed by ID
+     */
+    Map<Integer, Box> getByIdQuery(String idQuery, Object... params) throws SQLException {
+        String query = "SELECT * FROM boxes WHERE id IN (" + idQuery + ")";
+        long generation = CACHE.getGeneration();
+        Map<Integer, Box> boxes = new HashMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setParameters(stmt, params);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Box box = mapResultSetToBox(rs);
+                    boxes.put(box.getId(), box);
+                    CACHE.put(box.getId(), box, generation);
+                }
+            }
+        }
+        
+        return boxes;
+    }
+    
     /**
      * Get all available boxes
      */
@@ -95,7 +186,8 @@ public class BoxDAO {
         String query = "SELECT * FROM boxes WHERE status = ?";
         List<Box> boxes = new ArrayList<>();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, BoxStatus.AVAILABLE.toString());
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -117,7 +209,8 @@ public class BoxDAO {
         String query = "SELECT * FROM boxes WHERE status = ?";
         List<Box> availableBoxes = new ArrayList<>();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, BoxStatus.AVAILABLE.toString());
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -131,42 +224,451 @@ public class BoxDAO {
     }
     
     /**
-     * Update a box in the database
+     * Update a box in the database. A box an animal is still in cannot be made
+     * AVAILABLE, even when the caller's copy predates the animal being placed,
+     * since the next assignment would put a second animal in it.
+     * @return Whether the box was updated
      */
     public boolean update(Box box) throws SQLException {
-        String query = "UPDATE boxes SET name = ?, location = ?, size = ?, status = ? WHERE id = ?";
+        String query = "UPDATE boxes SET name = ?, location = ?, size = ?, status = ? WHERE id = ? " +
+                       "AND (? <> ? OR NOT EXISTS (SELECT 1 FROM animals WHERE box_id = ?))";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, box.getName());
             stmt.setString(2, box.getLocation());
             stmt.setString(3, box.getSize());
             stmt.setString(4, box.getStatus().toString());
             stmt.setInt(5, box.getId());
+            stmt.setString(6, box.getStatus().toString());
+            stmt.setString(7, BoxStatus.AVAILABLE.toString());
+            stmt.setInt(8, box.getId());
             
-            return stmt.executeUpdate() > 0;
+            invalidate(box.getId());
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                publishSaved(box);
+                AnimalDAO.publishFacets(connection, "a.box_id = ?", box.getId());
+            } else {
+                // The caller's copy is stale, show the box as it really is
+                publishStatus(connection, box.getId());
+            }
+            return updated;
         }
     }
     
+    /**
+     * Move an animal into a box, releasing its previous box, in one transaction.
+     * The box is claimed with an UPDATE that only matches while it is AVAILABLE,
+     * so two stations can never place animals in the same box: the slower one
+     * gets BOX_UNAVAILABLE. Retried when the database is busy.
+     */
+    public BoxAssignmentOutcome assign(int animalId, int boxId) throws SQLException {
+        BoxAssignmentOutcome outcome = pool.inTransaction(
+                connection -> assignInTransaction(connection, animalId, boxId), MAX_ATTEMPTS);
+        
+        recordOutcome(outcome);
+        return outcome;
+    }
+    
+    /**
+     * Place several animals in one transaction, each box being claimed like in
+     * {@link #assign(int, int)}. A box taken meanwhile by another station only
+     * fails its own placement. Retried as a whole when the database is busy.
+     * @param boxIds Box of each animal, keyed by animal ID
+     * @return The outcome of each placement, in the order given
+     */
+    public Map<Integer, BoxAssignmentOutcome> assignAll(Map<Integer, Integer> boxIds) throws SQLException {
+        Map<Integer, BoxAssignmentOutcome> outcomes = pool.inTransaction(connection -> {
+            Map<Integer, BoxAssignmentOutcome> results = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Integer> placement : boxIds.entrySet()) {
+                results.put(placement.getKey(),
+                        assignInTransaction(connection, placement.getKey(), placement.getValue()));
+            }
+            return results;
+        }, MAX_ATTEMPTS);
+        
+        for (BoxAssignmentOutcome outcome : outcomes.values()) {
+            recordOutcome(outcome);
+        }
+        return outcomes;
+    }
+    
+    /**
+     * Take an animal out of its box in one transaction; the box becomes
+     * AVAILABLE once no animal is left in it
+     * @return Whether the animal was in a box
+     */
+    public boolean release(int animalId) throws SQLException {
+        return pool.inTransaction(connection -> {
+            int boxId = currentBoxId(connection, animalId);
+            if (boxId <= 0) {
+                return false;
+            }
+            
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "UPDATE animals SET box_id = NULL WHERE id = ? AND box_id = ?")) {
+                stmt.setInt(1, animalId);
+                stmt.setInt(2, boxId);
+                if (stmt.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            
+            releaseIfEmpty(connection, boxId);
+            publishStatus(connection, boxId);
+            AnimalDAO.publishFacets(connection, "a.id = ?", animalId);
+            return true;
+        }, MAX_ATTEMPTS);
+    }
+    
+    /**
+     * Place an animal just inserted in the caller's transaction in its box, with
+     * the same conditional claim as {@link #assign(int, int)}
+     * @throws SQLException If the box is not available, so the insert is rolled back
+     */
+    void placeNewAnimal(Connection connection, int animalId, int boxId) throws SQLException {
+        BoxAssignmentOutcome outcome = assignInTransaction(connection, animalId, boxId);
+        if (outcome != BoxAssignmentOutcome.ASSIGNED) {
+            recordOutcome(outcome);
+            throw new SQLException("Creating animal failed, box " + boxId + " is not available.");
+        }
+        pool.afterCommit(() -> recordOutcome(outcome));
+    }
+    
+    /**
+     * Claim a box for an animal within the caller's transaction
+     */
+    BoxAssignmentOutcome assignInTransaction(Connection connection, int animalId, int boxId) throws SQLException {
+        String claimQuery = "UPDATE boxes SET status = ? WHERE id = ? AND status = ? " +
+                            "AND EXISTS (SELECT 1 FROM animals WHERE id = ?) " +
+                            "AND NOT EXISTS (SELECT 1 FROM animals WHERE box_id = ?)";
+        
+        // Write first, so the transaction holds the write lock before reading
+        boolean claimed;
+        try (PreparedStatement stmt = connection.prepareStatement(claimQuery)) {
+            stmt.setString(1, BoxStatus.OCCUPIED.toString());
+            stmt.setInt(2, boxId);
+            stmt.setString(3, BoxStatus.AVAILABLE.toString());
+            stmt.setInt(4, animalId);
+            stmt.setInt(5, boxId);
+            claimed = stmt.executeUpdate() > 0;
+        }
+        
+        int previousBoxId = currentBoxId(connection, animalId);
+        if (!claimed) {
+            if (previousBoxId < 0) {
+                return BoxAssignmentOutcome.NOT_FOUND;
+            }
+            // Already in that box
+            if (previousBoxId == boxId) {
+                return BoxAssignmentOutcome.ASSIGNED;
+            }
+            // Taken by another station: stop offering it here
+            publishStatus(connection, boxId);
+            return BoxAssignmentOutcome.BOX_UNAVAILABLE;
+        }
+        
+        try (PreparedStatement stmt = connection.prepareStatement("UPDATE animals SET box_id = ? WHERE id = ?")) {
+            stmt.setInt(1, boxId);
+            stmt.setInt(2, animalId);
+            stmt.executeUpdate();
+        }
+        
+        if (previousBoxId > 0 && previousBoxId != boxId) {
+            releaseIfEmpty(connection, previousBoxId);
+            publishStatus(connection, boxId, previousBoxId);
+        } else {
+            publishStatus(connection, boxId);
+        }
+        return BoxAssignmentOutcome.ASSIGNED;
+    }
+    
+    /**
+     * Number of animals placed in a box by {@link #assign(int, int)}
+     */
+    public static long getAssignmentCount() {
+        return ASSIGNMENTS.get();
+    }
+    
+    /**
+     * Number of assignments refused because another station took the box first
+     */
+    public static long getConflictCount() {
+        return CONFLICTS.get();
+    }
+    
     /**
      * Delete a box from the database
      */
     public boolean delete(int id) throws SQLException {
-        // First, update any animals that are in this box to have no box
-        String updateAnimalsQuery = "UPDATE animals SET box_id = NULL WHERE box_id = ?";
+        try (Connection connection = pool.getWriteConnection()) {
+            // First, update any animals that are in this box to have no box
+            String updateAnimalsQuery = "UPDATE animals SET box_id = NULL WHERE box_id = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(updateAnimalsQuery)) {
+                stmt.setInt(1, id);
+                if (stmt.executeUpdate() > 0) {
+                    // The animals that were in the box are no longer known, reload them all
+                    pool.afterCommit(() -> AnimalDAO.getFacetCache().invalidate());
+                }
+            }
+            
+            // Then delete the box
+            String query = "DELETE FROM boxes WHERE id = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, id);
+                
+                invalidate(id);
+                boolean deleted = stmt.executeUpdate() > 0;
+                if (deleted) {
+                    pool.afterCommit(() -> {
+                        FREE_INDEX.remove(id);
+                        OCCUPANCY.remove(id);
+                        notifyListeners(listener -> listener.boxDeleted(id));
+                    });
+                }
+                return deleted;
+            }
+        }
+    }
+    
+    /**
+     * Get the cache of box lookups by ID
+     */
+    public static EntityCache<Box> getCache() {
+        return CACHE;
+    }
+    
+    /**
+     * Get the free lists of available boxes: the shared index, loaded on first
+     * use, or a snapshot read from the database when the index is disabled
+     */
+    public FreeBoxIndex getFreeBoxIndex() throws SQLException {
+        if (FREE_INDEX_ENABLED) {
+            if (FREE_INDEX.isLoaded()) {
+                return FREE_INDEX;
+            }
+            
+            long version = FREE_INDEX.getVersion();
+            if (FREE_INDEX.load(getAvailableBoxes(), version)) {
+                return FREE_INDEX;
+            }
+        }
         
-        try (PreparedStatement stmt = connection.prepareStatement(updateAnimalsQuery)) {
-            stmt.setInt(1, id);
+        // Disabled, or a write raced with the load
+        FreeBoxIndex snapshot = new FreeBoxIndex();
+        snapshot.load(getAvailableBoxes(), 0);
+        return snapshot;
+    }
+    
+    /**
+     * Get the occupancy of every box, loaded from the database on first use with
+     * one query and then kept up to date by every box change and placement
+     */
+    public BoxOccupancy getOccupancy() throws SQLException {
+        if (OCCUPANCY.isLoaded()) {
+            return OCCUPANCY;
+        }
+        
+        long version = OCCUPANCY.getVersion();
+        List<Box> boxes;
+        try (Connection connection = pool.getReadConnection()) {
+            boxes = readWithOccupants(connection, null);
+        }
+        if (OCCUPANCY.load(boxes, version)) {
+            return OCCUPANCY;
+        }
+        
+        // A write raced with the load
+        BoxOccupancy snapshot = new BoxOccupancy();
+        try (Connection connection = pool.getReadConnection()) {
+            snapshot.load(readWithOccupants(connection, null), 0);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Register a listener notified of every committed box change and placement
+     */
+    public static void addChangeListener(BoxChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+    
+    public static void removeChangeListener(BoxChangeListener listener) {
+        LISTENERS.remove(listener);
+    }
+    
+    /**
+     * Once the current transaction commits, show the new name and species of an
+     * animal in the occupancy of its box
+     */
+    void occupantUpdated(Animal animal) {
+        Animal occupant = new Animal();
+        occupant.setId(animal.getId());
+        occupant.setName(animal.getName());
+        occupant.setSpecies(animal.getSpecies());
+        pool.afterCommit(() -> OCCUPANCY.updateOccupant(occupant));
+    }
+    
+    private static void recordOutcome(BoxAssignmentOutcome outcome) {
+        if (outcome == BoxAssignmentOutcome.ASSIGNED) {
+            ASSIGNMENTS.incrementAndGet();
+        } else if (outcome == BoxAssignmentOutcome.BOX_UNAVAILABLE) {
+            CONFLICTS.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Box the animal is in: 0 when it has none, -1 when the animal does not exist
+     */
+    private int currentBoxId(Connection connection, int animalId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT COALESCE(box_id, 0) FROM animals WHERE id = ?")) {
+            stmt.setInt(1, animalId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+    
+    /**
+     * Mark an occupied box AVAILABLE if no animal is left in it
+     */
+    private void releaseIfEmpty(Connection connection, int boxId) throws SQLException {
+        String query = "UPDATE boxes SET status = ? WHERE id = ? AND status = ? " +
+                       "AND NOT EXISTS (SELECT 1 FROM animals WHERE box_id = ?)";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, BoxStatus.AVAILABLE.toString());
+            stmt.setInt(2, boxId);
+            stmt.setString(3, BoxStatus.OCCUPIED.toString());
+            stmt.setInt(4, boxId);
             stmt.executeUpdate();
         }
+    }
+    
+    /**
+     * Read back boxes whose status or occupant changed within the caller's
+     * transaction, drop them from the cache and publish them, with the animal
+     * they hold, once the transaction commits
+     */
+    void publishStatus(Connection connection, int... boxIds) throws SQLException {
+        Object[] params = new Object[boxIds.length];
+        for (int i = 0; i < boxIds.length; i++) {
+            params[i] = boxIds[i];
+        }
+        
+        // The animals in these boxes show their status
+        AnimalDAO.publishFacets(connection, "a.box_id IN (" + SqlUtils.placeholders(boxIds.length) + ")", params);
         
-        // Then delete the box
-        String query = "DELETE FROM boxes WHERE id = ?";
+        Set<Integer> missing = new HashSet<>();
+        for (int boxId : boxIds) {
+            missing.add(boxId);
+        }
+        for (Box box : readWithOccupants(connection, "b.id IN (" + SqlUtils.placeholders(boxIds.length) + ")", params)) {
+            missing.remove(box.getId());
+            invalidate(box.getId());
+            Box saved = copyOf(box);
+            saved.setCurrentAnimal(box.getCurrentAnimal());
+            pool.afterCommit(() -> {
+                FREE_INDEX.put(saved);
+                OCCUPANCY.put(saved);
+                notifyListeners(listener -> listener.boxSaved(saved));
+            });
+        }
+        // Deleted by another station
+        for (int boxId : missing) {
+            invalidate(boxId);
+            pool.afterCommit(() -> {
+                FREE_INDEX.remove(boxId);
+                OCCUPANCY.remove(boxId);
+                notifyListeners(listener -> listener.boxDeleted(boxId));
+            });
+        }
+    }
+    
+    /**
+     * Once the write commits, record the box's columns in the free box index and
+     * the occupancy, keeping the animal it holds
+     */
+    private void publishSaved(Box box) {
+        Box saved = copyOf(box);
+        pool.afterCommit(() -> {
+            FREE_INDEX.put(saved);
+            OCCUPANCY.update(saved);
+            notifyListeners(listener -> listener.boxSaved(saved));
+        });
+    }
+    
+    private static void notifyListeners(Consumer<BoxChangeListener> event) {
+        for (BoxChangeListener listener : LISTENERS) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Read boxes with the first animal placed in each, in one query joining the
+     * boxes to animals.box_id
+     * @param where Condition on the boxes, aliased b, or null for every box
+     */
+    private List<Box> readWithOccupants(Connection connection, String where, Object... params) throws SQLException {
+        String query = "SELECT b.*, a.id AS animal_id, a.name AS animal_name, a.species AS animal_species " +
+                       "FROM boxes b LEFT JOIN animals a ON a.box_id = b.id" +
+                       (where != null ? " WHERE " + where : "") + " ORDER BY b.id, a.id";
+        List<Box> boxes = new ArrayList<>();
         
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, id);
+            SqlUtils.setParameters(stmt, params);
             
-            return stmt.executeUpdate() > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                Box previous = null;
+                while (rs.next()) {
+                    int boxId = rs.getInt("id");
+                    if (previous != null && previous.getId() == boxId) {
+                        continue;
+                    }
+                    
+                    previous = mapResultSetToBox(rs);
+                    int animalId = rs.getInt("animal_id");
+                    if (!rs.wasNull()) {
+                        Animal occupant = new Animal();
+                        occupant.setId(animalId);
+                        occupant.setName(rs.getString("animal_name"));
+                        occupant.setSpecies(rs.getString("animal_species"));
+                        previous.setCurrentAnimal(occupant);
+                    }
+                    boxes.add(previous);
+                }
+            }
         }
+        
+        return boxes;
+    }
+    
+    /**
+     * Drop a cached box now and again once the current transaction commits. A
+     * reader still on a snapshot from before the commit cannot re-cache the old
+     * row: the invalidation after the commit changes the cache generation it read.
+     */
+    private void invalidate(int id) {
+        CACHE.invalidate(id);
+        pool.afterCommit(() -> CACHE.invalidate(id));
+    }
+    
+    /**
+     * Copy the columns of a box, without its relations
+     */
+    private static Box copyOf(Box box) {
+        Box copy = new Box(box.getId(), box.getName(), box.getLocation(), box.getSize());
+        copy.setStatus(box.getStatus());
+        return copy;
     }
     
     /**
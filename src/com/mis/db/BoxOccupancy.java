@@ -0,0 +1,240 @@
+package com.mis.db;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.mis.model.Animal;
+import com.mis.model.Box;
+import com.mis.model.BoxStatus;
+
+/**
+ * In-memory occupancy of every box: one bitset of box IDs per status, per
+ * location and per size, so a count such as "occupied 9m² boxes in building A"
+ * is the cardinality of an intersection of three bitsets. Each box is kept
+ * with its current animal.
+ *
+ * BoxDAO fills the shared instance with a single query joining boxes to the
+ * animals they hold, then applies every committed box change, placement and
+ * release to it.
+ */
+public class BoxOccupancy {
+    private final Map<BoxStatus, BitSet> byStatus = new EnumMap<>(BoxStatus.class);
+    private final Map<String, BitSet> byLocation = new TreeMap<>();
+    private final Map<String, BitSet> bySize = new TreeMap<>();
+    private final Map<Integer, Box> boxes = new TreeMap<>();
+    
+    private boolean loaded;
+    // Incremented on every change, so a load that raced with a write is detected
+    private long version;
+    
+    public BoxOccupancy() {
+        for (BoxStatus status : BoxStatus.values()) {
+            byStatus.put(status, new BitSet());
+        }
+    }
+    
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+    
+    /**
+     * Number of boxes with the given status, location and size; null matches any value
+     */
+    public synchronized int count(BoxStatus status, String location, String size) {
+        BitSet matching = new BitSet();
+        if (status != null) {
+            matching.or(byStatus.get(status));
+        } else {
+            for (BitSet ids : byStatus.values()) {
+                matching.or(ids);
+            }
+        }
+        
+        if (location != null) {
+            matching.and(byLocation.getOrDefault(location, new BitSet()));
+        }
+        if (size != null) {
+            matching.and(bySize.getOrDefault(size, new BitSet()));
+        }
+        return matching.cardinality();
+    }
+    
+    /**
+     * Locations of the boxes, sorted; boxes without a location are listed under the empty string
+     */
+    public synchronized List<String> getLocations() {
+        return new ArrayList<>(byLocation.keySet());
+    }
+    
+    /**
+     * Sizes of the boxes, sorted; boxes without a size are listed under the empty string
+     */
+    public synchronized List<String> getSizes() {
+        return new ArrayList<>(bySize.keySet());
+    }
+    
+    /**
+     * Copies of every box with its current animal, ordered by ID
+     */
+    public synchronized List<Box> getBoxes() {
+        List<Box> copies = new ArrayList<>(boxes.size());
+        for (Box box : boxes.values()) {
+            copies.add(copyOf(box));
+        }
+        return copies;
+    }
+    
+    /**
+     * Copy of a box with its current animal, or null
+     */
+    public synchronized Box getBox(int boxId) {
+        Box box = boxes.get(boxId);
+        return box != null ? copyOf(box) : null;
+    }
+    
+    synchronized long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Replace the whole occupancy with the boxes read from the database, unless
+     * it changed since {@code expectedVersion} was read
+     * @return Whether the occupancy is now loaded
+     */
+    synchronized boolean load(Collection<Box> allBoxes, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        
+        clearEntries();
+        loaded = true;
+        for (Box box : allBoxes) {
+            add(copyOf(box));
+        }
+        return true;
+    }
+    
+    /**
+     * Record a box and its current animal, as read back after a placement
+     */
+    synchronized void put(Box box) {
+        version++;
+        if (loaded) {
+            removeEntry(box.getId());
+            add(copyOf(box));
+        }
+    }
+    
+    /**
+     * Record new box columns, keeping the animal currently in it
+     */
+    synchronized void update(Box box) {
+        version++;
+        if (!loaded) {
+            return;
+        }
+        
+        Box previous = removeEntry(box.getId());
+        Box copy = copyOf(box);
+        copy.setCurrentAnimal(previous != null ? previous.getCurrentAnimal() : null);
+        add(copy);
+    }
+    
+    /**
+     * Record the new name and species of an animal shown as a box occupant
+     */
+    synchronized void updateOccupant(Animal animal) {
+        version++;
+        if (!loaded) {
+            return;
+        }
+        
+        for (Box box : boxes.values()) {
+            if (box.getCurrentAnimal() != null && box.getCurrentAnimal().getId() == animal.getId()) {
+                box.setCurrentAnimal(occupantOf(animal));
+            }
+        }
+    }
+    
+    synchronized void remove(int boxId) {
+        version++;
+        if (loaded) {
+            removeEntry(boxId);
+        }
+    }
+    
+    /**
+     * Drop the whole occupancy; it is reloaded on next use
+     */
+    synchronized void invalidate() {
+        version++;
+        loaded = false;
+        clearEntries();
+    }
+    
+    private void add(Box box) {
+        int id = box.getId();
+        boxes.put(id, box);
+        byStatus.get(box.getStatus()).set(id);
+        byLocation.computeIfAbsent(key(box.getLocation()), location -> new BitSet()).set(id);
+        bySize.computeIfAbsent(key(box.getSize()), size -> new BitSet()).set(id);
+    }
+    
+    private Box removeEntry(int boxId) {
+        Box previous = boxes.remove(boxId);
+        if (previous == null) {
+            return null;
+        }
+        
+        byStatus.get(previous.getStatus()).clear(boxId);
+        clearBit(byLocation, key(previous.getLocation()), boxId);
+        clearBit(bySize, key(previous.getSize()), boxId);
+        return previous;
+    }
+    
+    private void clearEntries() {
+        for (BitSet ids : byStatus.values()) {
+            ids.clear();
+        }
+        byLocation.clear();
+        bySize.clear();
+        boxes.clear();
+    }
+    
+    private static void clearBit(Map<String, BitSet> sets, String key, int boxId) {
+        BitSet ids = sets.get(key);
+        ids.clear(boxId);
+        if (ids.isEmpty()) {
+            sets.remove(key);
+        }
+    }
+    
+    private static Box copyOf(Box box) {
+        Box copy = new Box(box.getId(), box.getName(), box.getLocation(), box.getSize());
+        copy.setStatus(box.getStatus());
+        if (box.getCurrentAnimal() != null) {
+            copy.setCurrentAnimal(occupantOf(box.getCurrentAnimal()));
+        }
+        return copy;
+    }
+    
+    /**
+     * Identity of an animal as shown for a box, without its relations
+     */
+    private static Animal occupantOf(Animal animal) {
+        Animal occupant = new Animal();
+        occupant.setId(animal.getId());
+        occupant.setName(animal.getName());
+        occupant.setSpecies(animal.getSpecies());
+        return occupant;
+    }
+    
+    private static String key(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,531 @@
+package com.mis.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of SQLite connections made of a configurable number of read
+ * connections and one dedicated writer. Every connection is configured with the
+ * pragmas of the {@link DatabaseConfig} when it is opened.
+ *
+ * Connections are checked out per thread: a nested checkout on a thread that
+ * already holds a connection gets a handle on that same connection, and a read
+ * checkout on a thread holding the writer reuses the writer so it sees its own
+ * uncommitted changes. Closing a handle returns the connection to the pool once
+ * the outermost handle is closed.
+ */
+public class ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    private static final long RETRY_DELAY_MILLIS = 20;
+    
+    private final DatabaseConfig config;
+    private final int maxReadConnections;
+    private final long borrowTimeoutMillis;
+    
+    private final BlockingQueue<Connection> idleReaders;
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final Semaphore writerPermit = new Semaphore(1, true);
+    private Connection writer; // guarded by writerPermit
+    
+    private final ThreadLocal<Lease> readLease = new ThreadLocal<>();
+    private final ThreadLocal<Lease> writeLease = new ThreadLocal<>();
+    
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    
+    private volatile boolean closed;
+    
+    public ConnectionPool(DatabaseConfig config) {
+        this.config = config;
+        this.maxReadConnections = config.getReadConnections();
+        this.borrowTimeoutMillis = config.getBorrowTimeoutMillis();
+        
+        if (maxReadConnections < 1) {
+            throw new IllegalArgumentException("At least one read connection is required");
+        }
+        this.idleReaders = new ArrayBlockingQueue<>(maxReadConnections);
+    }
+    
+    /**
+     * Check out a connection for reading. Close the returned handle to give it back.
+     */
+    public Connection getReadConnection() throws SQLException {
+        Lease current = activeLease(writeLease);
+        if (current == null) {
+            current = activeLease(readLease);
+        }
+        if (current != null) {
+            return current.newHandle();
+        }
+        
+        long start = System.nanoTime();
+        Connection connection = borrowReader();
+        recordWait(System.nanoTime() - start);
+        
+        Lease lease = new Lease(connection, false);
+        readLease.set(lease);
+        return lease.newHandle();
+    }
+    
+    /**
+     * Check out the writer connection. Only one thread holds it at a time.
+     * Close the returned handle to give it back.
+     */
+    public Connection getWriteConnection() throws SQLException {
+        Lease current = activeLease(writeLease);
+        if (current != null) {
+            return current.newHandle();
+        }
+        
+        long start = System.nanoTime();
+        Connection connection = borrowWriter();
+        recordWait(System.nanoTime() - start);
+        
+        Lease lease = new Lease(connection, true);
+        writeLease.set(lease);
+        return lease.newHandle();
+    }
+    
+    /**
+     * Run work in a transaction on the writer connection and commit it, or roll
+     * it back if the work throws. When the calling thread is already inside a
+     * transaction the work joins it and the outermost caller commits.
+     */
+    public <T> T inTransaction(SqlFunction<Connection, T> work) throws SQLException {
+        try (Connection connection = getWriteConnection()) {
+            if (!connection.getAutoCommit()) {
+                return work.apply(connection);
+            }
+            
+            Lease lease = writeLease.get();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.apply(connection);
+                connection.commit();
+                lease.runAfterCommit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                lease.afterCommit.clear();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+    
+    /**
+     * Run work in a transaction like {@link #inTransaction(SqlFunction)}, running
+     * it again from the start when SQLite reports the database busy or locked,
+     * e.g. when another process committed between this transaction's first read
+     * and its first write. Work joining an outer transaction is not retried here,
+     * the outermost caller decides.
+     * @param maxAttempts Number of times the work may run
+     */
+    public <T> T inTransaction(SqlFunction<Connection, T> work, int maxAttempts) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            boolean nested = isInTransaction();
+            try {
+                return inTransaction(work);
+            } catch (SQLException e) {
+                if (nested || attempt >= maxAttempts || !isBusy(e)) {
+                    throw e;
+                }
+                retryCount.incrementAndGet();
+                
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Whether the current thread is inside a transaction started by inTransaction
+     */
+    public boolean isInTransaction() {
+        Lease lease = activeLease(writeLease);
+        
+        try {
+            return lease != null && !lease.connection.getAutoCommit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+    
+    /**
+     * Run an action once the current thread's transaction commits, or right
+     * away when the thread is not inside a transaction started by inTransaction.
+     * Actions of a rolled back transaction are discarded.
+     */
+    public void afterCommit(Runnable action) {
+        Lease lease = activeLease(writeLease);
+        
+        try {
+            if (lease != null && !lease.connection.getAutoCommit()) {
+                lease.afterCommit.add(action);
+                return;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        
+        action.run();
+    }
+    
+    /**
+     * Close every idle connection; connections still checked out are closed when returned
+     */
+    public void close() {
+        closed = true;
+        
+        Connection connection;
+        while ((connection = idleReaders.poll()) != null) {
+            closeQuietly(connection);
+            openReaders.decrementAndGet();
+        }
+        
+        if (writerPermit.tryAcquire()) {
+            try {
+                if (writer != null) {
+                    closeQuietly(writer);
+                    writer = null;
+                }
+            } finally {
+                writerPermit.release();
+            }
+        }
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Number of connections currently checked out
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+    
+    /**
+     * Number of open connections waiting in the pool
+     */
+    public int getIdleCount() {
+        int idleWriter = writerPermit.availablePermits() > 0 && writer != null ? 1 : 0;
+        return idleReaders.size() + idleWriter;
+    }
+    
+    public int getMaxReadConnections() {
+        return maxReadConnections;
+    }
+    
+    /**
+     * Number of checkouts that took a connection from the pool, nested checkouts excluded
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+    
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+    
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+    
+    /**
+     * Number of transactions run again after the database was busy or locked
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+    
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / borrows;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[active=%d, idle=%d, borrows=%d, avgWait=%.2fms, maxWait=%dms, retries=%d]",
+                getActiveCount(), getIdleCount(), getBorrowCount(), getAverageWaitMillis(), getMaxWaitMillis(),
+                getRetryCount());
+    }
+    
+    /**
+     * Whether the error, or one of its causes, is SQLITE_BUSY or SQLITE_LOCKED,
+     * including their extended codes such as SQLITE_BUSY_SNAPSHOT
+     */
+    static boolean isBusy(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                int primaryCode = ((SQLException) cause).getErrorCode() & 0xff;
+                if (primaryCode == 5 || primaryCode == 6) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private Connection borrowReader() throws SQLException {
+        ensureOpen();
+        
+        Connection connection = idleReaders.poll();
+        if (connection == null) {
+            if (openReaders.incrementAndGet() <= maxReadConnections) {
+                try {
+                    return openConnection();
+                } catch (SQLException e) {
+                    openReaders.decrementAndGet();
+                    throw e;
+                }
+            }
+            openReaders.decrementAndGet();
+            
+            try {
+                connection = idleReaders.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a read connection", e);
+            }
+            if (connection == null) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a read connection");
+            }
+        }
+        
+        if (!isValid(connection)) {
+            closeQuietly(connection);
+            try {
+                connection = openConnection();
+            } catch (SQLException e) {
+                openReaders.decrementAndGet();
+                throw e;
+            }
+        }
+        return connection;
+    }
+    
+    private Connection borrowWriter() throws SQLException {
+        ensureOpen();
+        
+        try {
+            if (!writerPermit.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for the write connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the write connection", e);
+        }
+        
+        try {
+            if (writer == null || !isValid(writer)) {
+                if (writer != null) {
+                    closeQuietly(writer);
+                }
+                writer = openConnection();
+            }
+            return writer;
+        } catch (SQLException e) {
+            writer = null;
+            writerPermit.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Open a new physical connection and apply the configured pragmas to it
+     */
+    protected Connection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(config.getUrl());
+        try {
+            config.applyPragmas(connection);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+        return connection;
+    }
+    
+    private void giveBack(Lease lease) {
+        Connection connection = lease.connection;
+        activeCount.decrementAndGet();
+        
+        try {
+            if (!connection.isClosed() && !connection.getAutoCommit()) {
+                // A caller left a transaction open: discard it
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            closeQuietly(connection);
+        }
+        
+        if (lease.writable) {
+            if (closed) {
+                closeQuietly(connection);
+                writer = null;
+            }
+            writerPermit.release();
+        } else if (closed || !idleReaders.offer(connection)) {
+            closeQuietly(connection);
+            openReaders.decrementAndGet();
+        }
+    }
+    
+    private Lease activeLease(ThreadLocal<Lease> holder) {
+        Lease lease = holder.get();
+        if (lease != null && lease.released) {
+            // Released from another thread: forget it
+            holder.remove();
+            return null;
+        }
+        return lease;
+    }
+    
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+    
+    private void recordWait(long waitNanos) {
+        activeCount.incrementAndGet();
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+    
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * A checked-out physical connection shared by the nested handles of one thread
+     */
+    private final class Lease {
+        private final Connection connection;
+        private final boolean writable;
+        private final Thread owner = Thread.currentThread();
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private int holdCount;
+        private volatile boolean released;
+        
+        private Lease(Connection connection, boolean writable) {
+            this.connection = connection;
+            this.writable = writable;
+        }
+        
+        private void runAfterCommit() {
+            List<Runnable> actions = new ArrayList<>(afterCommit);
+            afterCommit.clear();
+            
+            for (Runnable action : actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        
+        private synchronized Connection newHandle() {
+            holdCount++;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+        
+        private void release() {
+            synchronized (this) {
+                if (--holdCount > 0) {
+                    return;
+                }
+                released = true;
+            }
+            
+            if (Thread.currentThread() == owner) {
+                (writable ? writeLease : readLease).remove();
+            }
+            giveBack(this);
+        }
+    }
+    
+    /**
+     * Connection handle that gives the lease back on close instead of closing the connection
+     */
+    private static final class Handle implements InvocationHandler {
+        private final Lease lease;
+        private boolean closed;
+        
+        private Handle(Lease lease) {
+            this.lease = lease;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        lease.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || lease.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + lease.connection + "]";
+                default:
+                    break;
+            }
+            
+            if (closed) {
+                throw new SQLException("Connection handle is closed");
+            }
+            
+            try {
+                return method.invoke(lease.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.mis.db;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Database settings read from database.properties: JDBC URL, pool sizing and
+ * the SQLite pragmas applied to every connection when it is opened
+ */
+public class DatabaseConfig {
+    /** System property pointing to an alternative configuration file */
+    public static final String CONFIG_FILE_PROPERTY = "mis.db.config";
+    public static final String DEFAULT_CONFIG_FILE = "database.properties";
+    
+    /** Pragmas applied at connection open, in this order */
+    private static final String[] PRAGMAS = {
+        "busy_timeout", "journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store"
+    };
+    
+    private static final Pattern PRAGMA_VALUE = Pattern.compile("-?[A-Za-z0-9_]+");
+    
+    private final Properties properties = new Properties();
+    
+    public DatabaseConfig() {
+        properties.setProperty("db.url", "jdbc:sqlite:animalMIS.db");
+        properties.setProperty("db.pool.readConnections", "4");
+        properties.setProperty("db.pool.borrowTimeoutMillis", "30000");
+        
+        // Concurrent readers during writes, one fsync per checkpoint rather than per commit
+        properties.setProperty("sqlite.journal_mode", "WAL");
+        properties.setProperty("sqlite.synchronous", "NORMAL");
+        // Negative values are in KiB: 16 MB page cache per connection
+        properties.setProperty("sqlite.cache_size", "-16000");
+        properties.setProperty("sqlite.mmap_size", "268435456");
+        properties.setProperty("sqlite.temp_store", "MEMORY");
+        properties.setProperty("sqlite.busy_timeout", "5000");
+    }
+    
+    /**
+     * Load the configuration file named by the mis.db.config system property, or
+     * database.properties from the working directory. Missing keys keep their defaults.
+     */
+    public static DatabaseConfig load() {
+        DatabaseConfig config = new DatabaseConfig();
+        Path path = Paths.get(System.getProperty(CONFIG_FILE_PROPERTY, DEFAULT_CONFIG_FILE));
+        
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = new FileInputStream(path.toFile())) {
+                config.properties.load(in);
+            } catch (IOException e) {
+                System.err.println("Could not read " + path + ", using default database settings: " + e.getMessage());
+            }
+        }
+        
+        return config;
+    }
+    
+    public String getUrl() {
+        return properties.getProperty("db.url");
+    }
+    
+    public int getReadConnections() {
+        return getInt("db.pool.readConnections", 4);
+    }
+    
+    public long getBorrowTimeoutMillis() {
+        return getInt("db.pool.borrowTimeoutMillis", 30000);
+    }
+    
+    /**
+     * String setting, trimmed, or the given default when the key is missing
+     */
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+    
+    /**
+     * Integer setting, or the given default when the key is missing or malformed
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Boolean setting, or the given default when the key is missing
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+    
+    /**
+     * Apply the configured pragmas to a freshly opened connection
+     */
+    public void applyPragmas(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                String value = properties.getProperty("sqlite." + pragma);
+                if (value == null || value.trim().isEmpty()) {
+                    continue;
+                }
+                
+                value = value.trim();
+                if (!PRAGMA_VALUE.matcher(value).matches()) {
+                    System.err.println("Ignoring invalid value for sqlite." + pragma + ": " + value);
+                    continue;
+                }
+                
+                stmt.execute("PRAGMA " + pragma + " = " + value);
+            }
+        }
+    }
+    
+    /**
+     * Read back the pragma values actually in effect on a connection
+     */
+    public static Map<String, String> readEffectiveSettings(Connection connection) throws SQLException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        
+        try (Statement stmt = connection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+                    settings.put(pragma, rs.next() ? rs.getString(1) : null);
+                }
+            }
+        }
+        
+        return settings;
+    }
+}
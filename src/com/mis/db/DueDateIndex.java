@@ -0,0 +1,148 @@
+package com.mis.db;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory calendar of treatment due dates: for each day, the IDs of the
+ * treatments due that day. Days are kept in a sorted map, so a date range is
+ * read from a sub-map view without scanning the other days.
+ *
+ * The index starts unloaded; TreatmentDAO fills it from the database on first
+ * use and keeps it up to date as treatments are saved, updated and deleted.
+ */
+public class DueDateIndex {
+    private final TreeMap<LocalDate, TreeSet<Integer>> byDay = new TreeMap<>();
+    private final Map<Integer, LocalDate> dueDates = new HashMap<>();
+    
+    private boolean loaded;
+    // Incremented on every change, so a load that raced with a write is detected
+    private long version;
+    
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+    
+    /**
+     * Get the IDs of the treatments due between two days, both included, by day
+     */
+    public synchronized SortedMap<LocalDate, List<Integer>> idsBetween(LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, List<Integer>> result = new TreeMap<>();
+        if (from.isAfter(to)) {
+            return result;
+        }
+        
+        for (Map.Entry<LocalDate, TreeSet<Integer>> entry : byDay.subMap(from, true, to, true).entrySet()) {
+            result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return result;
+    }
+    
+    /**
+     * Count the treatments due between two days, both included
+     */
+    public synchronized int countBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return 0;
+        }
+        
+        int count = 0;
+        for (TreeSet<Integer> ids : byDay.subMap(from, true, to, true).values()) {
+            count += ids.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Get the indexed due date of a treatment, or null
+     */
+    public synchronized LocalDate getDueDate(int treatmentId) {
+        return dueDates.get(treatmentId);
+    }
+    
+    /**
+     * Number of indexed treatments
+     */
+    public synchronized int size() {
+        return dueDates.size();
+    }
+    
+    synchronized long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Replace the whole index with the due dates read from the database, unless
+     * the index changed since {@code expectedVersion} was read
+     * @return Whether the index is now loaded
+     */
+    synchronized boolean load(Map<Integer, LocalDate> treatments, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        
+        byDay.clear();
+        dueDates.clear();
+        loaded = true;
+        for (Map.Entry<Integer, LocalDate> entry : treatments.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+    
+    /**
+     * Record the due date of a treatment, null when it has none
+     */
+    synchronized void put(int treatmentId, LocalDate dueDate) {
+        version++;
+        if (!loaded) {
+            return;
+        }
+        
+        removeEntry(treatmentId);
+        if (dueDate != null) {
+            add(treatmentId, dueDate);
+        }
+    }
+    
+    synchronized void remove(int treatmentId) {
+        version++;
+        if (loaded) {
+            removeEntry(treatmentId);
+        }
+    }
+    
+    /**
+     * Drop the whole index; it is reloaded on next use
+     */
+    synchronized void invalidate() {
+        version++;
+        loaded = false;
+        byDay.clear();
+        dueDates.clear();
+    }
+    
+    private void add(int treatmentId, LocalDate dueDate) {
+        dueDates.put(treatmentId, dueDate);
+        byDay.computeIfAbsent(dueDate, day -> new TreeSet<>()).add(treatmentId);
+    }
+    
+    private void removeEntry(int treatmentId) {
+        LocalDate previous = dueDates.remove(treatmentId);
+        if (previous == null) {
+            return;
+        }
+        
+        TreeSet<Integer> ids = byDay.get(previous);
+        ids.remove(treatmentId);
+        if (ids.isEmpty()) {
+            byDay.remove(previous);
+        }
+    }
+}
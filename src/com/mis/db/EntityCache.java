@@ -0,0 +1,122 @@
+package com.mis.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Size-bounded LRU cache of entities keyed by ID, shared by all instances of a DAO.
+ *
+ * Entities are copied on the way in and on the way out, so callers that modify
+ * an object they got from the DAO never change what other callers see. The
+ * owning DAO invalidates entries on save, update and delete.
+ *
+ * A reader may still be on a snapshot taken before a write committed, so it
+ * reads the generation before its query and the row it read is only cached if
+ * no entry was invalidated in the meantime.
+ */
+public class EntityCache<T> {
+    private final int maxSize;
+    private final UnaryOperator<T> copier;
+    private final LinkedHashMap<Integer, T> entries;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    // Incremented on every invalidation, so a put that raced with a write is detected
+    private long generation;
+    
+    public EntityCache(int maxSize, UnaryOperator<T> copier) {
+        this.maxSize = maxSize;
+        this.copier = copier;
+        // Access order: iteration starts at the least recently used entry
+        this.entries = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Get a copy of the cached entity, or null on a miss
+     */
+    public synchronized T get(int id) {
+        T entity = entries.get(id);
+        if (entity == null) {
+            misses++;
+            return null;
+        }
+        
+        hits++;
+        return copier.apply(entity);
+    }
+    
+    /**
+     * Generation to read before querying an entity that will be cached
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * Cache a copy of the entity, unless an entry was invalidated since
+     * {@code expectedGeneration} was read
+     * @return Whether the entity was cached
+     */
+    public synchronized boolean put(int id, T entity, long expectedGeneration) {
+        if (maxSize <= 0 || entity == null || generation != expectedGeneration) {
+            return false;
+        }
+        
+        entries.put(id, copier.apply(entity));
+        return true;
+    }
+    
+    public synchronized void invalidate(int id) {
+        generation++;
+        entries.remove(id);
+    }
+    
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+    
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return String.format("EntityCache[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                entries.size(), maxSize, hits, misses, evictions);
+    }
+}
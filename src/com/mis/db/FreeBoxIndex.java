@@ -0,0 +1,297 @@
+package com.mis.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.mis.model.Box;
+import com.mis.model.BoxStatus;
+
+/**
+ * In-memory free lists of the available boxes, bucketed by size then location.
+ * Sizes are ordered by area ("4m²" before "9m²" before "16m²"), so when no box
+ * of the requested size is free the smallest larger size is found by walking
+ * the few sizes above it. Empty buckets are dropped, so the next free box of a
+ * size, or of a size and location, is the head of its first bucket.
+ *
+ * BoxDAO fills the shared index from the database on first use and keeps it up
+ * to date as boxes are saved, updated and deleted. Planning code works on a
+ * {@link #snapshot()}, from which boxes can be taken as they are allocated.
+ */
+public class FreeBoxIndex {
+    private final TreeMap<String, Map<String, LinkedHashSet<Integer>>> bySize =
+            new TreeMap<>(FreeBoxIndex::compareSizes);
+    private final Map<Integer, Box> boxes = new HashMap<>();
+    
+    private boolean loaded;
+    private boolean detached;
+    // Incremented on every change, so a load that raced with a write is detected
+    private long version;
+    
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+    
+    /**
+     * Next free box of the given size, in the given location if not null
+     * @return A copy of the box, or null if none is free
+     */
+    public synchronized Box next(String size, String location) {
+        Map<String, LinkedHashSet<Integer>> byLocation = bySize.get(key(size));
+        if (byLocation == null) {
+            return null;
+        }
+        
+        LinkedHashSet<Integer> ids = location != null ? byLocation.get(key(location))
+                                                      : byLocation.values().iterator().next();
+        return ids != null ? copyOf(boxes.get(ids.iterator().next())) : null;
+    }
+    
+    /**
+     * Next free box of the given size or, when that size is full, of the smallest
+     * larger size with a free box. The location is preferred within each size.
+     * @return A copy of the box, or null if none fits
+     */
+    public synchronized Box nextBestFit(String size, String location) {
+        return find(size, location, false);
+    }
+    
+    /**
+     * Remove and return the next box {@link #nextBestFit(String, String)} would
+     * give, or only boxes of the given location when {@code sameLocationOnly}.
+     * Only allowed on a snapshot.
+     * @return A copy of the box, or null if none fits
+     */
+    public synchronized Box take(String size, String location, boolean sameLocationOnly) {
+        if (!detached) {
+            throw new IllegalStateException("Boxes can only be taken from a snapshot of the index");
+        }
+        
+        Box box = find(size, location, sameLocationOnly);
+        if (box != null) {
+            removeEntry(box.getId());
+        }
+        return box;
+    }
+    
+    /**
+     * Independent copy of the current free lists, for planning allocations
+     */
+    public synchronized FreeBoxIndex snapshot() {
+        FreeBoxIndex copy = new FreeBoxIndex();
+        copy.detached = true;
+        copy.load(getAll(), 0);
+        return copy;
+    }
+    
+    /**
+     * Locations that have free boxes, in first-seen order; boxes without a
+     * location are listed under the empty string
+     */
+    public synchronized List<String> getLocations() {
+        Set<String> locations = new LinkedHashSet<>();
+        for (Map<String, LinkedHashSet<Integer>> byLocation : bySize.values()) {
+            locations.addAll(byLocation.keySet());
+        }
+        return new ArrayList<>(locations);
+    }
+    
+    /**
+     * Free boxes of the given size or, when that size is full, of the smallest
+     * larger size with free boxes
+     */
+    public synchronized List<Box> getBestFit(String size) {
+        List<String> sizes = fittingSizes(size);
+        return sizes.isEmpty() ? new ArrayList<>() : getFree(sizes.get(0));
+    }
+    
+    /**
+     * Free boxes of a size, grouped by location
+     */
+    public synchronized List<Box> getFree(String size) {
+        List<Box> free = new ArrayList<>();
+        Map<String, LinkedHashSet<Integer>> byLocation = bySize.get(key(size));
+        if (byLocation != null) {
+            for (LinkedHashSet<Integer> ids : byLocation.values()) {
+                for (Integer id : ids) {
+                    free.add(copyOf(boxes.get(id)));
+                }
+            }
+        }
+        return free;
+    }
+    
+    /**
+     * Every free box, by size then location
+     */
+    public synchronized List<Box> getAll() {
+        List<Box> free = new ArrayList<>();
+        for (String size : bySize.keySet()) {
+            free.addAll(getFree(size));
+        }
+        return free;
+    }
+    
+    /**
+     * Number of free boxes
+     */
+    public synchronized int size() {
+        return boxes.size();
+    }
+    
+    synchronized long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Replace the whole index with the available boxes read from the database,
+     * unless the index changed since {@code expectedVersion} was read
+     * @return Whether the index is now loaded
+     */
+    synchronized boolean load(Collection<Box> availableBoxes, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        
+        bySize.clear();
+        boxes.clear();
+        loaded = true;
+        for (Box box : availableBoxes) {
+            add(box);
+        }
+        return true;
+    }
+    
+    /**
+     * Record the current state of a box: listed if available, dropped otherwise
+     */
+    synchronized void put(Box box) {
+        version++;
+        if (!loaded) {
+            return;
+        }
+        
+        removeEntry(box.getId());
+        if (box.getStatus() == BoxStatus.AVAILABLE) {
+            add(box);
+        }
+    }
+    
+    synchronized void remove(int boxId) {
+        version++;
+        if (loaded) {
+            removeEntry(boxId);
+        }
+    }
+    
+    /**
+     * Drop the whole index; it is reloaded on next use
+     */
+    synchronized void invalidate() {
+        version++;
+        loaded = false;
+        bySize.clear();
+        boxes.clear();
+    }
+    
+    private Box find(String size, String location, boolean sameLocationOnly) {
+        for (String candidate : fittingSizes(size)) {
+            Box box = location != null ? next(candidate, location) : null;
+            if (box == null && !sameLocationOnly) {
+                box = next(candidate, null);
+            }
+            if (box != null) {
+                return box;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The requested size followed by the larger sizes that have free boxes, the
+     * first entry being the best fit; every size, smallest first, for a null size
+     */
+    private List<String> fittingSizes(String size) {
+        if (size == null) {
+            return new ArrayList<>(bySize.keySet());
+        }
+        
+        List<String> sizes = new ArrayList<>();
+        String requested = key(size);
+        if (bySize.containsKey(requested)) {
+            sizes.add(requested);
+        }
+        if (area(requested) != Integer.MAX_VALUE) {
+            for (String larger : bySize.tailMap(requested, false).keySet()) {
+                if (area(larger) != Integer.MAX_VALUE) {
+                    sizes.add(larger);
+                }
+            }
+        }
+        return sizes;
+    }
+    
+    private void add(Box box) {
+        Box copy = copyOf(box);
+        boxes.put(copy.getId(), copy);
+        bySize.computeIfAbsent(key(copy.getSize()), size -> new LinkedHashMap<>())
+              .computeIfAbsent(key(copy.getLocation()), location -> new LinkedHashSet<>())
+              .add(copy.getId());
+    }
+    
+    private void removeEntry(int boxId) {
+        Box previous = boxes.remove(boxId);
+        if (previous == null) {
+            return;
+        }
+        
+        String size = key(previous.getSize());
+        String location = key(previous.getLocation());
+        Map<String, LinkedHashSet<Integer>> byLocation = bySize.get(size);
+        LinkedHashSet<Integer> ids = byLocation.get(location);
+        ids.remove(boxId);
+        if (ids.isEmpty()) {
+            byLocation.remove(location);
+            if (byLocation.isEmpty()) {
+                bySize.remove(size);
+            }
+        }
+    }
+    
+    private static Box copyOf(Box box) {
+        Box copy = new Box(box.getId(), box.getName(), box.getLocation(), box.getSize());
+        copy.setStatus(BoxStatus.AVAILABLE);
+        return copy;
+    }
+    
+    private static String key(String value) {
+        return value != null ? value : "";
+    }
+    
+    /**
+     * Floor area from a size label such as "9m²", MAX_VALUE when it has none
+     */
+    private static int area(String size) {
+        int end = 0;
+        while (end < size.length() && Character.isDigit(size.charAt(end))) {
+            end++;
+        }
+        
+        try {
+            return end > 0 ? Integer.parseInt(size.substring(0, end)) : Integer.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+    
+    private static int compareSizes(String first, String second) {
+        int byArea = Integer.compare(area(first), area(second));
+        return byArea != 0 ? byArea : first.compareTo(second);
+    }
+}
@@ -5,19 +5,29 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.mis.model.Owner;
+import com.mis.model.OwnerSummary;
 
 /**
  * Data Access Object for Owner entities
  */
 public class OwnerDAO {
-    private Connection connection;
+    private static final EntityCache<Owner> CACHE = new EntityCache<>(
+            DatabaseConnection.getInstance().getConfig().getInt("cache.owners.maxSize", 1000), OwnerDAO::copyOf);
+    
+    /** Attempts of a merge transaction while the database is busy */
+    private static final int MAX_ATTEMPTS = 5;
+    
+    private ConnectionPool pool;
     
     public OwnerDAO() {
-        this.connection = DatabaseConnection.getInstance().getConnection();
+        this.pool = DatabaseConnection.getInstance().getPool();
     }
     
     /**
@@ -27,7 +37,8 @@ public class OwnerDAO {
         String query = "INSERT INTO owners (first_name, last_name, email, phone, address) " +
                        "VALUES (?, ?, ?, ?, ?)";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, owner.getFirstName());
             stmt.setString(2, owner.getLastName());
             stmt.setString(3, owner.getEmail());
@@ -44,6 +55,7 @@ public class OwnerDAO {
                 if (generatedKeys.next()) {
                     int ownerId = generatedKeys.getInt(1);
                     owner.setId(ownerId);
+                    invalidate(ownerId);
                     return ownerId;
                 } else {
                     throw new SQLException("Creating owner failed, no ID obtained.");
@@ -56,14 +68,23 @@ public class OwnerDAO {
      * Get an owner by ID
      */
     public Owner getById(int id) throws SQLException {
+        Owner cached = CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        
         String query = "SELECT * FROM owners WHERE id = ?";
+        long generation = CACHE.getGeneration();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return mapResultSetToOwner(rs);
+                    Owner owner = mapResultSetToOwner(rs);
+                    CACHE.put(id, owner, generation);
+                    return owner;
                 }
             }
         }
@@ -78,7 +99,8 @@ public class OwnerDAO {
         String query = "SELECT * FROM owners";
         List<Owner> owners = new ArrayList<>();
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = pool.getReadConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             
             while (rs.next()) {
@@ -89,6 +111,92 @@ public class OwnerDAO {
         return owners;
     }
     
+    /**
+     * Get all owners with the number of animals each owns and how many of them
+     * have an overdue treatment, counted in one grouped query over animals.owner_id
+     * instead of loading every owner's animals
+     */
+    public List<OwnerSummary> getAllSummaries() throws SQLException {
+        String query = "SELECT o.*, COALESCE(c.animal_count, 0) AS animal_count, " +
+                       "COALESCE(c.overdue_count, 0) AS overdue_count " +
+                       "FROM owners o LEFT JOIN (" +
+                       "SELECT a.owner_id, COUNT(*) AS animal_count, " +
+                       "SUM(EXISTS (SELECT 1 FROM treatments t WHERE t.animal_id = a.id AND t." +
+                       TreatmentDAO.OVERDUE_CONDITION + ")) AS overdue_count " +
+                       "FROM animals a WHERE a.owner_id IS NOT NULL GROUP BY a.owner_id" +
+                       ") c ON c.owner_id = o.id ORDER BY o.id";
+        List<OwnerSummary> summaries = new ArrayList<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setLong(1, LocalDate.now().toEpochDay());
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(new OwnerSummary(mapResultSetToOwner(rs),
+                            rs.getInt("animal_count"), rs.getInt("overdue_count")));
+                }
+            }
+        }
+        
+        return summaries;
+    }
+    
+    /**
+     * Get the next page of owners, ordered by ID
+     * @param afterId ID of the last owner of the previous page, 0 for the first page
+     * @param limit Maximum number of owners to return
+     */
+    public List<Owner> getPage(int afterId, int limit) throws SQLException {
+        String query = "SELECT * FROM owners WHERE id > ? ORDER BY id LIMIT ?";
+        List<Owner> owners = new ArrayList<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    owners.add(mapResultSetToOwner(rs));
+                }
+            }
+        }
+        
+        return owners;
+    }
+    
+    /**
+     * Get the total number of owners
+     */
+    public int count() throws SQLException {
+        return SqlUtils.count(pool, "owners");
+    }
+    
+    /**
+     * Get the owners whose IDs are returned by the given sub-query, keyed by ID
+     */
+    Map<Integer, Owner> getByIdQuery(String idQuery, Object... params) throws SQLException {
+        String query = "SELECT * FROM owners WHERE id IN (" + idQuery + ")";
+        long generation = CACHE.getGeneration();
+        Map<Integer, Owner> owners = new HashMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setParameters(stmt, params);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Owner owner = mapResultSetToOwner(rs);
+                    owners.put(owner.getId(), owner);
+                    CACHE.put(owner.getId(), owner, generation);
+                }
+            }
+        }
+        
+        return owners;
+    }
+    
     /**
      * Update an owner in the database
      */
@@ -96,7 +204,8 @@ public class OwnerDAO {
         String query = "UPDATE owners SET first_name = ?, last_name = ?, email = ?, " +
                       "phone = ?, address = ? WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, owner.getFirstName());
             stmt.setString(2, owner.getLastName());
             stmt.setString(3, owner.getEmail());
@@ -104,6 +213,7 @@ public class OwnerDAO {
             stmt.setString(5, owner.getAddress());
             stmt.setInt(6, owner.getId());
             
+            invalidate(owner.getId());
             return stmt.executeUpdate() > 0;
         }
     }
@@ -112,22 +222,94 @@ public class OwnerDAO {
      * Delete an owner from the database
      */
     public boolean delete(int id) throws SQLException {
-        // First, update any animals owned by this owner to have no owner
-        String updateAnimalsQuery = "UPDATE animals SET owner_id = NULL WHERE owner_id = ?";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(updateAnimalsQuery)) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
+        try (Connection connection = pool.getWriteConnection()) {
+            // First, update any animals owned by this owner to have no owner
+            String updateAnimalsQuery = "UPDATE animals SET owner_id = NULL WHERE owner_id = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(updateAnimalsQuery)) {
+                stmt.setInt(1, id);
+                stmt.executeUpdate();
+            }
+            
+            // Then delete the owner
+            String query = "DELETE FROM owners WHERE id = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, id);
+                
+                invalidate(id);
+                return stmt.executeUpdate() > 0;
+            }
+        }
+    }
+    
+    /**
+     * Merge a duplicate owner into another in one transaction: contact details
+     * the kept owner lacks are copied from the duplicate, the duplicate's animals
+     * are moved to the kept owner, then the duplicate is deleted. Retried when
+     * the database is busy.
+     * @return Whether both owners existed
+     */
+    public boolean merge(int keptId, int duplicateId) throws SQLException {
+        if (keptId == duplicateId) {
+            throw new IllegalArgumentException("An owner cannot be merged into itself");
         }
         
-        // Then delete the owner
-        String query = "DELETE FROM owners WHERE id = ?";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, id);
+        return pool.inTransaction(connection -> {
+            String fillQuery = "UPDATE owners SET " +
+                               "email = COALESCE(NULLIF(email, ''), (SELECT email FROM owners WHERE id = ?)), " +
+                               "phone = COALESCE(NULLIF(phone, ''), (SELECT phone FROM owners WHERE id = ?)), " +
+                               "address = COALESCE(NULLIF(address, ''), (SELECT address FROM owners WHERE id = ?)) " +
+                               "WHERE id = ? AND EXISTS (SELECT 1 FROM owners WHERE id = ?)";
             
-            return stmt.executeUpdate() > 0;
-        }
+            try (PreparedStatement stmt = connection.prepareStatement(fillQuery)) {
+                SqlUtils.setParameters(stmt, duplicateId, duplicateId, duplicateId, keptId, duplicateId);
+                if (stmt.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "UPDATE animals SET owner_id = ? WHERE owner_id = ?")) {
+                stmt.setInt(1, keptId);
+                stmt.setInt(2, duplicateId);
+                stmt.executeUpdate();
+            }
+            
+            try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM owners WHERE id = ?")) {
+                stmt.setInt(1, duplicateId);
+                stmt.executeUpdate();
+            }
+            
+            invalidate(keptId);
+            invalidate(duplicateId);
+            return true;
+        }, MAX_ATTEMPTS);
+    }
+    
+    /**
+     * Get the cache of owner lookups by ID
+     */
+    public static EntityCache<Owner> getCache() {
+        return CACHE;
+    }
+    
+    /**
+     * Drop a cached owner now and again once the current transaction commits. A
+     * reader still on a snapshot from before the commit cannot re-cache the old
+     * row: the invalidation after the commit changes the cache generation it read.
+     */
+    private void invalidate(int id) {
+        CACHE.invalidate(id);
+        pool.afterCommit(() -> CACHE.invalidate(id));
+    }
+    
+    /**
+     * Copy the columns of an owner, without its relations
+     */
+    private static Owner copyOf(Owner owner) {
+        return new Owner(owner.getId(), owner.getFirstName(), owner.getLastName(),
+                owner.getEmail(), owner.getPhone(), owner.getAddress());
     }
     
     /**
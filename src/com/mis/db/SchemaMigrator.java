@@ -0,0 +1,360 @@
+package com.mis.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date by applying ordered, versioned
+ * migration steps. Applied versions are recorded in the schema_version table,
+ * so existing databases are upgraded in place and each step runs only once.
+ */
+public class SchemaMigrator {
+    
+    /**
+     * A single schema change, applied inside the migration's transaction
+     */
+    @FunctionalInterface
+    interface Step {
+        void apply(Statement stmt) throws SQLException;
+    }
+    
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final Step step;
+        
+        private Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+    
+    private final List<Migration> migrations = new ArrayList<>();
+    
+    public SchemaMigrator() {
+        add(1, "Create base tables", SchemaMigrator::createBaseTables);
+        add(2, "Add indexes for DAO lookups", SchemaMigrator::createLookupIndexes);
+        add(3, "Store dates as epoch days", SchemaMigrator::storeDatesAsEpochDays);
+        add(4, "Add full-text search over animals and owners", SchemaMigrator::createSearchIndex);
+        add(5, "Update the search index only when searched columns change", SchemaMigrator::restrictSearchUpdates);
+    }
+    
+    private void add(int version, String description, Step step) {
+        if (!migrations.isEmpty() && migrations.get(migrations.size() - 1).version >= version) {
+            throw new IllegalStateException("Migrations must be registered in increasing version order");
+        }
+        migrations.add(new Migration(version, description, step));
+    }
+    
+    /**
+     * Apply every pending migration, each in its own transaction
+     * @return The schema version after migration
+     */
+    public int migrate(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INTEGER PRIMARY KEY," +
+                    "description TEXT NOT NULL," +
+                    "applied_at TEXT NOT NULL" +
+                    ")");
+        }
+        
+        int current = getCurrentVersion(connection);
+        
+        for (Migration migration : migrations) {
+            if (migration.version <= current) {
+                continue;
+            }
+            
+            // Table rebuilds drop referenced tables: foreign keys are switched off
+            // around the transaction (the pragma is ignored inside one) and checked before commit
+            boolean foreignKeys = setForeignKeys(connection, false);
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                migration.step.apply(stmt);
+                if (foreignKeys) {
+                    checkForeignKeys(stmt);
+                }
+                recordVersion(connection, migration);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Schema migration " + migration.version + " (" +
+                        migration.description + ") failed: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+                setForeignKeys(connection, foreignKeys);
+            }
+            
+            current = migration.version;
+            System.out.println("Applied schema migration " + migration.version + ": " + migration.description);
+        }
+        
+        return current;
+    }
+    
+    /**
+     * Get the highest applied schema version, 0 for a database never migrated
+     */
+    public int getCurrentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    /**
+     * Latest version known to this build
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version;
+    }
+    
+    private void recordVersion(Connection connection, Migration migration) throws SQLException {
+        String query = "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.setString(3, LocalDateTime.now().toString());
+            stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Set foreign key enforcement on the connection
+     * @return Whether it was enabled before
+     */
+    private static boolean setForeignKeys(Connection connection, boolean enabled) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            boolean previous;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_keys")) {
+                previous = rs.next() && rs.getInt(1) != 0;
+            }
+            if (previous != enabled) {
+                stmt.execute("PRAGMA foreign_keys = " + (enabled ? "ON" : "OFF"));
+            }
+            return previous;
+        }
+    }
+    
+    private static void checkForeignKeys(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check")) {
+            if (rs.next()) {
+                throw new SQLException("Foreign key violation in table " + rs.getString("table") +
+                        ", row " + rs.getLong("rowid"));
+            }
+        }
+    }
+    
+    /**
+     * Check whether a table already has a column, for databases created before it was added
+     */
+    static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    // Version 1: the tables previously created by initializeDatabase, including
+    // the 'size' columns that older databases lack
+    private static void createBaseTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS owners (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "first_name TEXT NOT NULL," +
+                "last_name TEXT NOT NULL," +
+                "email TEXT," +
+                "phone TEXT," +
+                "address TEXT" +
+                ")");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS boxes (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "name TEXT NOT NULL," +
+                "location TEXT," +
+                "size TEXT," +
+                "status TEXT NOT NULL" +
+                ")");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS animals (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "name TEXT NOT NULL," +
+                "species TEXT NOT NULL," +
+                "breed TEXT," +
+                "birth_date TEXT," +
+                "gender TEXT," +
+                "size TEXT," +
+                "owner_id INTEGER," +
+                "box_id INTEGER," +
+                "FOREIGN KEY (owner_id) REFERENCES owners(id)," +
+                "FOREIGN KEY (box_id) REFERENCES boxes(id)" +
+                ")");
+        
+        stmt.execute("CREATE TABLE IF NOT EXISTS treatments (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "animal_id INTEGER NOT NULL," +
+                "type TEXT NOT NULL," +
+                "name TEXT NOT NULL," +
+                "description TEXT," +
+                "administration_date TEXT," +
+                "next_due_date TEXT," +
+                "administered BOOLEAN DEFAULT 0," +
+                "FOREIGN KEY (animal_id) REFERENCES animals(id)" +
+                ")");
+        
+        if (!hasColumn(stmt, "animals", "size")) {
+            stmt.execute("ALTER TABLE animals ADD COLUMN size TEXT");
+        }
+        if (!hasColumn(stmt, "boxes", "size")) {
+            stmt.execute("ALTER TABLE boxes ADD COLUMN size TEXT");
+        }
+    }
+    
+    // Version 2: indexes behind treatment lookups by animal and due date, the
+    // owner/box reference updates and the available-box search
+    private static void createLookupIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_treatments_animal_id ON treatments(animal_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_treatments_next_due_date ON treatments(next_due_date)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_animals_owner_id ON animals(owner_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_animals_box_id ON animals(box_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_boxes_status_size ON boxes(status, size)");
+        stmt.execute("ANALYZE");
+    }
+    
+    // Version 3: birth, administration and due dates move from ISO-8601 TEXT to
+    // INTEGER days since 1970-01-01. A TEXT column would turn the integers back
+    // into strings, so both tables are rebuilt with INTEGER date columns.
+    private static void storeDatesAsEpochDays(Statement stmt) throws SQLException {
+        rebuildTable(stmt, "animals",
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "name TEXT NOT NULL," +
+                "species TEXT NOT NULL," +
+                "breed TEXT," +
+                "birth_date INTEGER," +
+                "gender TEXT," +
+                "size TEXT," +
+                "owner_id INTEGER," +
+                "box_id INTEGER," +
+                "FOREIGN KEY (owner_id) REFERENCES owners(id)," +
+                "FOREIGN KEY (box_id) REFERENCES boxes(id)",
+                "id, name, species, breed, birth_date, gender, size, owner_id, box_id",
+                "id, name, species, breed, " + epochDay("birth_date") + ", gender, size, owner_id, box_id");
+        
+        rebuildTable(stmt, "treatments",
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "animal_id INTEGER NOT NULL," +
+                "type TEXT NOT NULL," +
+                "name TEXT NOT NULL," +
+                "description TEXT," +
+                "administration_date INTEGER," +
+                "next_due_date INTEGER," +
+                "administered BOOLEAN DEFAULT 0," +
+                "FOREIGN KEY (animal_id) REFERENCES animals(id)",
+                "id, animal_id, type, name, description, administration_date, next_due_date, administered",
+                "id, animal_id, type, name, description, " + epochDay("administration_date") + ", " +
+                epochDay("next_due_date") + ", administered");
+        
+        // Dropping the old tables dropped their indexes
+        createLookupIndexes(stmt);
+    }
+    
+    private static final String SEARCH_ANIMAL_ROW = "INSERT INTO search_fts (rowid, name, species, breed, owner) " +
+            "VALUES (new.id * 2, new.name, new.species, new.breed, " +
+            "(SELECT first_name || ' ' || last_name FROM owners WHERE id = new.owner_id));";
+    private static final String SEARCH_OWNER_ROW = "INSERT INTO search_fts (rowid, name, contact) " +
+            "VALUES (new.id * 2 + 1, new.first_name || ' ' || new.last_name, " +
+            "TRIM(COALESCE(new.email, '') || ' ' || COALESCE(new.phone, '')));";
+    
+    // Version 4: FTS5 index of animals and owners, kept in sync by triggers. An
+    // animal is row id*2 and an owner row id*2+1; an animal's row also holds its
+    // owner's name, so "max dupont" finds Dupont's dog Max. '@' and '.' are part
+    // of tokens, so an email is one term instead of matching every owner on "fr".
+    // A later rebuild of the animals or owners table must recreate the triggers.
+    private static void createSearchIndex(Statement stmt) throws SQLException {
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS search_fts USING fts5(" +
+                "name, species, breed, owner, contact," +
+                "tokenize = \"unicode61 remove_diacritics 2 tokenchars '@.'\"," +
+                "prefix = '2 3'" +
+                ")");
+        
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS animals_search_insert AFTER INSERT ON animals BEGIN " +
+                SEARCH_ANIMAL_ROW + " END");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS animals_search_delete AFTER DELETE ON animals BEGIN " +
+                "DELETE FROM search_fts WHERE rowid = old.id * 2; END");
+        
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS owners_search_insert AFTER INSERT ON owners BEGIN " +
+                SEARCH_OWNER_ROW + " END");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS owners_search_delete AFTER DELETE ON owners BEGIN " +
+                "DELETE FROM search_fts WHERE rowid = old.id * 2 + 1; END");
+        createSearchUpdateTriggers(stmt);
+        
+        // Index the existing rows
+        stmt.execute("DELETE FROM search_fts");
+        stmt.execute("INSERT INTO search_fts (rowid, name, species, breed, owner) " +
+                "SELECT a.id * 2, a.name, a.species, a.breed, o.first_name || ' ' || o.last_name " +
+                "FROM animals a LEFT JOIN owners o ON o.id = a.owner_id");
+        stmt.execute("INSERT INTO search_fts (rowid, name, contact) " +
+                "SELECT id * 2 + 1, first_name || ' ' || last_name, " +
+                "TRIM(COALESCE(email, '') || ' ' || COALESCE(phone, '')) FROM owners");
+        stmt.execute("INSERT INTO search_fts (search_fts) VALUES ('optimize')");
+    }
+    
+    // Version 5: the update triggers of version 4 fired on every update, so each
+    // box placement rewrote the animal's search row; they now only fire when a
+    // column copied to the index changes
+    private static void restrictSearchUpdates(Statement stmt) throws SQLException {
+        stmt.execute("DROP TRIGGER IF EXISTS animals_search_update");
+        stmt.execute("DROP TRIGGER IF EXISTS owners_search_update");
+        createSearchUpdateTriggers(stmt);
+    }
+    
+    private static void createSearchUpdateTriggers(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS animals_search_update " +
+                "AFTER UPDATE OF name, species, breed, owner_id ON animals BEGIN " +
+                "DELETE FROM search_fts WHERE rowid = old.id * 2; " + SEARCH_ANIMAL_ROW + " END");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS owners_search_update " +
+                "AFTER UPDATE OF first_name, last_name, email, phone ON owners BEGIN " +
+                "DELETE FROM search_fts WHERE rowid = old.id * 2 + 1; " + SEARCH_OWNER_ROW +
+                "UPDATE search_fts SET owner = new.first_name || ' ' || new.last_name " +
+                "WHERE rowid IN (SELECT id * 2 FROM animals WHERE owner_id = new.id); END");
+    }
+    
+    /**
+     * SQL expression converting an ISO-8601 date column to days since the epoch;
+     * NULL, empty and unparsable dates become NULL
+     */
+    private static String epochDay(String column) {
+        return "CAST(julianday(NULLIF(" + column + ", '')) - 2440587.5 AS INTEGER)";
+    }
+    
+    /**
+     * Recreate a table with a new definition, copying its rows through the given
+     * select list and keeping its AUTOINCREMENT counter, so deleted IDs are not reused
+     */
+    private static void rebuildTable(Statement stmt, String table, String definition,
+                                     String columns, String selectList) throws SQLException {
+        String newTable = table + "_new";
+        
+        stmt.execute("DROP TABLE IF EXISTS " + newTable);
+        stmt.execute("CREATE TABLE " + newTable + " (" + definition + ")");
+        stmt.execute("INSERT INTO " + newTable + " (" + columns + ") SELECT " + selectList + " FROM " + table);
+        stmt.execute("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "'");
+        stmt.execute("INSERT INTO sqlite_sequence (name, seq) " +
+                "SELECT '" + newTable + "', seq FROM sqlite_sequence WHERE name = '" + table + "'");
+        stmt.execute("DROP TABLE " + table);
+        stmt.execute("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+}
@@ -0,0 +1,126 @@
+package com.mis.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import com.mis.model.SearchResult;
+
+/**
+ * Full-text search over animals and owners, backed by the search_fts table that
+ * triggers keep in sync with both tables. Every word typed is matched as a
+ * prefix of a word of the name, species, breed, owner name, email or phone, and
+ * results are ranked with BM25, a match on a name weighing most.
+ */
+public class SearchDAO {
+    
+    /** Shorter words match too many rows to rank as you type and are ignored */
+    public static final int MIN_WORD_LENGTH = 2;
+    
+    // BM25 weights of the name, species, breed, owner and contact columns
+    private static final String RANK = "bm25(search_fts, 10.0, 4.0, 4.0, 6.0, 2.0)";
+    
+    private ConnectionPool pool;
+    
+    public SearchDAO() {
+        this.pool = DatabaseConnection.getInstance().getPool();
+    }
+    
+    /**
+     * Find the animals and owners matching every word of the text, best first
+     * @param kind Kind of result wanted, or null for both
+     * @param limit Maximum number of results
+     */
+    public List<SearchResult> search(String text, SearchResult.Kind kind, int limit) throws SQLException {
+        List<SearchResult> results = new ArrayList<>();
+        String match = toMatchExpression(text);
+        if (match == null) {
+            return results;
+        }
+        
+        // Animals are even row IDs, owners odd ones
+        String query = "SELECT rowid, name, species, breed, owner, contact FROM search_fts " +
+                       "WHERE search_fts MATCH ?" +
+                       (kind != null ? " AND rowid % 2 = " + (kind == SearchResult.Kind.ANIMAL ? 0 : 1) : "") +
+                       " ORDER BY " + RANK + " LIMIT ?";
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, match);
+            stmt.setInt(2, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(mapResultSetToResult(rs));
+                }
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Get the IDs of the animals matching every word of the text, best first
+     */
+    public List<Integer> searchAnimalIds(String text, int limit) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (SearchResult result : search(text, SearchResult.Kind.ANIMAL, limit)) {
+            ids.add(result.getId());
+        }
+        return ids;
+    }
+    
+    /**
+     * Whether the text holds a word long enough to be searched
+     */
+    public static boolean isSearchable(String text) {
+        return toMatchExpression(text) != null;
+    }
+    
+    /**
+     * Build the FTS5 query of a text typed by the user: each word becomes a quoted
+     * prefix term, so quotes and operators typed are taken literally
+     * @return The query, or null if the text holds no word long enough
+     */
+    static String toMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+        
+        StringJoiner terms = new StringJoiner(" ");
+        for (String word : text.split("[^\\p{L}\\p{N}@.]+")) {
+            // Dots ending a word, as in "Dupont.", are not part of it
+            word = word.replaceAll("\\.+$", "");
+            if (word.codePointCount(0, word.length()) >= MIN_WORD_LENGTH) {
+                terms.add("\"" + word + "\"*");
+            }
+        }
+        return terms.length() > 0 ? terms.toString() : null;
+    }
+    
+    /**
+     * Map a search_fts row to a result
+     */
+    private SearchResult mapResultSetToResult(ResultSet rs) throws SQLException {
+        long rowId = rs.getLong("rowid");
+        int id = (int) (rowId / 2);
+        
+        if (rowId % 2 == 0) {
+            StringJoiner detail = new StringJoiner(", ");
+            for (String column : new String[] { "species", "breed", "owner" }) {
+                String value = rs.getString(column);
+                if (value != null && !value.isEmpty()) {
+                    detail.add(value);
+                }
+            }
+            return new SearchResult(SearchResult.Kind.ANIMAL, id, rs.getString("name"), detail.toString());
+        }
+        
+        String contact = rs.getString("contact");
+        return new SearchResult(SearchResult.Kind.OWNER, id, rs.getString("name"), contact != null ? contact : "");
+    }
+}
@@ -0,0 +1,11 @@
+package com.mis.db;
+
+import java.sql.SQLException;
+
+/**
+ * Function that may fail with an SQLException, used for work run inside a transaction
+ */
+@FunctionalInterface
+public interface SqlFunction<T, R> {
+    R apply(T value) throws SQLException;
+}
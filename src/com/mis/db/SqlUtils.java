@@ -0,0 +1,174 @@
+package com.mis.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Small JDBC helpers shared by the DAOs
+ */
+final class SqlUtils {
+    /** Rows sent per executeBatch call */
+    static final int BATCH_SIZE = 1000;
+    
+    /** Bound parameters per statement, below the SQLite limit of 999 */
+    static final int MAX_PARAMETERS = 500;
+    
+    /** Rows fetched per round trip by streaming queries */
+    static final int FETCH_SIZE = 500;
+    
+    private SqlUtils() {
+    }
+    
+    /**
+     * Comma separated list of {@code count} parameter markers, for IN clauses
+     */
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+    
+    /**
+     * Bind positional parameters to a prepared statement
+     */
+    static void setParameters(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+    
+    /**
+     * Bind a date as its epoch day, the storage format of every date column
+     */
+    static void setDate(PreparedStatement stmt, int index, LocalDate date) throws SQLException {
+        if (date != null) {
+            stmt.setLong(index, date.toEpochDay());
+        } else {
+            stmt.setNull(index, Types.INTEGER);
+        }
+    }
+    
+    /**
+     * Read a date stored as an epoch day, null for SQL NULL
+     */
+    static LocalDate getDate(ResultSet rs, String column) throws SQLException {
+        long epochDay = rs.getLong(column);
+        return rs.wasNull() ? null : LocalDate.ofEpochDay(epochDay);
+    }
+    
+    /**
+     * Run a query on a read connection and map its rows lazily, one at a time, from
+     * a forward-only cursor. The connection, statement and result set stay open
+     * until the stream is closed, so callers must use try-with-resources.
+     * SQLExceptions raised while the stream is consumed are wrapped in an
+     * UncheckedSQLException.
+     */
+    static <T> Stream<T> stream(ConnectionPool pool, String query, SqlFunction<ResultSet, T> mapper,
+                                Object... params) throws SQLException {
+        Connection connection = pool.getReadConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        
+        try {
+            stmt = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(FETCH_SIZE);
+            setParameters(stmt, params);
+            rs = stmt.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            closeAll(rs, stmt, connection);
+            throw e;
+        }
+        
+        ResultSet cursor = rs;
+        PreparedStatement statement = stmt;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.apply(cursor));
+                    return true;
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                }
+            }
+        };
+        
+        return StreamSupport.stream(rows, false).onClose(() -> closeAll(cursor, statement, connection));
+    }
+    
+    /**
+     * Close JDBC resources in order, ignoring nulls and reporting failures
+     */
+    static void closeAll(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            
+            try {
+                resource.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Count the rows of a table
+     */
+    static int count(ConnectionPool pool, String table) throws SQLException {
+        try (Connection connection = pool.getReadConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    /**
+     * Get the IDs generated by the last {@code count} inserts into an
+     * AUTOINCREMENT table. The caller must have run the inserts inside one
+     * transaction on the writer connection: no other insert can interleave, so
+     * the rows received consecutive IDs ending at last_insert_rowid().
+     */
+    static List<Integer> lastInsertedIds(Connection connection, int count) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+            if (!rs.next()) {
+                throw new SQLException("Batch insert failed, no ID obtained.");
+            }
+            
+            int lastId = rs.getInt(1);
+            List<Integer> ids = new ArrayList<>(count);
+            for (int id = lastId - count + 1; id <= lastId; id++) {
+                ids.add(id);
+            }
+            return ids;
+        }
+    }
+    
+    /**
+     * Fail if any statement of an executed batch affected no row
+     */
+    static void checkBatch(int[] counts, String entity) throws SQLException {
+        for (int count : counts) {
+            if (count == 0) {
+                throw new SQLException("Creating " + entity + " failed, no rows affected.");
+            }
+        }
+    }
+}
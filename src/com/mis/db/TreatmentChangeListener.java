@@ -0,0 +1,25 @@
+package com.mis.db;
+
+import com.mis.model.Treatment;
+
+/**
+ * Notified by TreatmentDAO after a transaction writing treatments commits, on
+ * the thread that ran the write
+ */
+public interface TreatmentChangeListener {
+    
+    /**
+     * A treatment was created or updated
+     */
+    void treatmentSaved(Treatment treatment);
+    
+    /**
+     * A treatment was deleted
+     */
+    void treatmentDeleted(int treatmentId);
+    
+    /**
+     * Every treatment of an animal was deleted
+     */
+    void animalTreatmentsDeleted(int animalId);
+}
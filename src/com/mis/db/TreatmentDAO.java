@@ -7,36 +7,61 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import com.mis.model.AdministerOutcome;
 import com.mis.model.Treatment;
+import com.mis.model.TreatmentProtocol;
 import com.mis.model.TreatmentType;
 
 /**
  * Data Access Object for Treatment entities
  */
 public class TreatmentDAO {
-    private Connection connection;
+    private static final DueDateIndex DUE_INDEX = new DueDateIndex();
+    private static final boolean DUE_INDEX_ENABLED =
+            DatabaseConnection.getInstance().getConfig().getBoolean("index.dueDates.enabled", true);
+    private static final List<TreatmentChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+    
+    private ConnectionPool pool;
     
     public TreatmentDAO() {
-        this.connection = DatabaseConnection.getInstance().getConnection();
+        this.pool = DatabaseConnection.getInstance().getPool();
     }
     
+    /**
+     * Treatments due before the date bound as parameter, same rule as
+     * Treatment.isOverdue, as an epoch day. The comparison is a range on
+     * idx_treatments_next_due_date and never matches NULL due dates.
+     */
+    static final String OVERDUE_CONDITION = "next_due_date < ?";
+    
+    private static final String INSERT_QUERY = "INSERT INTO treatments (animal_id, type, name, description, " +
+                      "administration_date, next_due_date, administered) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    
     /**
      * Save a new treatment to the database
      */
     public int save(int animalId, Treatment treatment) throws SQLException {
-        String query = "INSERT INTO treatments (animal_id, type, name, description, " +
-                      "administration_date, next_due_date, administered) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, animalId);
-            stmt.setString(2, treatment.getType().toString());
-            stmt.setString(3, treatment.getName());
-            stmt.setString(4, treatment.getDescription());
-            stmt.setString(5, treatment.getAdministrationDate() != null ? treatment.getAdministrationDate().toString() : null);
-            stmt.setString(6, treatment.getNextDueDate() != null ? treatment.getNextDueDate().toString() : null);
-            stmt.setBoolean(7, treatment.isAdministered());
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+            bindInsert(stmt, animalId, treatment);
             
             int affectedRows = stmt.executeUpdate();
             
@@ -48,6 +73,9 @@ public class TreatmentDAO {
                 if (generatedKeys.next()) {
                     int treatmentId = generatedKeys.getInt(1);
                     treatment.setId(treatmentId);
+                    treatment.setAnimalId(animalId);
+                    publishSaved(treatment);
+                    AnimalDAO.publishFacets(connection, "a.id = ?", animalId);
                     return treatmentId;
                 } else {
                     throw new SQLException("Creating treatment failed, no ID obtained.");
@@ -56,13 +84,61 @@ public class TreatmentDAO {
         }
     }
     
+    /**
+     * Save several treatments of one animal with a single batched statement in
+     * one transaction
+     * @return The generated IDs, in list order
+     */
+    public List<Integer> saveAll(int animalId, List<Treatment> treatments) throws SQLException {
+        int[] animalIds = new int[treatments.size()];
+        Arrays.fill(animalIds, animalId);
+        
+        return saveAll(animalIds, treatments);
+    }
+    
+    /**
+     * Batch insert treatments belonging to possibly different animals:
+     * animalIds[i] is the animal of treatments.get(i). Joins the caller's
+     * transaction if there is one.
+     * @return The generated IDs, in list order
+     */
+    List<Integer> saveAll(int[] animalIds, List<Treatment> treatments) throws SQLException {
+        if (treatments.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        return pool.inTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_QUERY)) {
+                for (int i = 0; i < treatments.size(); i++) {
+                    bindInsert(stmt, animalIds[i], treatments.get(i));
+                    stmt.addBatch();
+                    
+                    if ((i + 1) % SqlUtils.BATCH_SIZE == 0) {
+                        SqlUtils.checkBatch(stmt.executeBatch(), "treatment");
+                    }
+                }
+                SqlUtils.checkBatch(stmt.executeBatch(), "treatment");
+            }
+            
+            List<Integer> ids = SqlUtils.lastInsertedIds(connection, treatments.size());
+            for (int i = 0; i < treatments.size(); i++) {
+                treatments.get(i).setId(ids.get(i));
+                treatments.get(i).setAnimalId(animalIds[i]);
+                publishSaved(treatments.get(i));
+            }
+            AnimalDAO.publishFacets(connection, Arrays.stream(animalIds).boxed().collect(Collectors.toList()));
+            return ids;
+        });
+    }
+    
     /**
      * Get a treatment by ID
      */
     public Treatment getById(int id) throws SQLException {
         String query = "SELECT * FROM treatments WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -75,6 +151,35 @@ public class TreatmentDAO {
         return null;
     }
     
+    /**
+     * Get the treatments with the given IDs, keyed by ID. IDs are sent in chunks
+     * to stay below the SQLite parameter limit.
+     */
+    Map<Integer, Treatment> getByIds(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Treatment> treatments = new HashMap<>();
+        List<Integer> idList = new ArrayList<>(ids);
+        
+        try (Connection connection = pool.getReadConnection()) {
+            for (int start = 0; start < idList.size(); start += SqlUtils.MAX_PARAMETERS) {
+                List<Integer> chunk = idList.subList(start, Math.min(start + SqlUtils.MAX_PARAMETERS, idList.size()));
+                String query = "SELECT * FROM treatments WHERE id IN (" + SqlUtils.placeholders(chunk.size()) + ")";
+                
+                try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                    SqlUtils.setParameters(stmt, chunk.toArray());
+                    
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            Treatment treatment = mapResultSetToTreatment(rs);
+                            treatments.put(treatment.getId(), treatment);
+                        }
+                    }
+                }
+            }
+        }
+        
+        return treatments;
+    }
+    
     /**
      * Get all treatments for a specific animal
      */
@@ -82,7 +187,8 @@ public class TreatmentDAO {
         String query = "SELECT * FROM treatments WHERE animal_id = ?";
         List<Treatment> treatments = new ArrayList<>();
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, animalId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -95,6 +201,176 @@ public class TreatmentDAO {
         return treatments;
     }
     
+    /**
+     * Get the treatments whose next due date is before today, ordered by due date
+     */
+    public List<Treatment> getOverdue() throws SQLException {
+        String query = "SELECT * FROM treatments WHERE " + OVERDUE_CONDITION + " ORDER BY next_due_date, id";
+        List<Treatment> treatments = new ArrayList<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setDate(stmt, 1, LocalDate.now());
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    treatments.add(mapResultSetToTreatment(rs));
+                }
+            }
+        }
+        
+        return treatments;
+    }
+    
+    /**
+     * Get the treatments due between two days, both included, grouped by due day
+     * then by treatment type. Reads a range of idx_treatments_next_due_date.
+     */
+    public SortedMap<LocalDate, Map<TreatmentType, List<Treatment>>> dueBetween(LocalDate from, LocalDate to)
+            throws SQLException {
+        String query = "SELECT * FROM treatments WHERE next_due_date >= ? AND next_due_date <= ? " +
+                       "ORDER BY next_due_date, id";
+        SortedMap<LocalDate, Map<TreatmentType, List<Treatment>>> calendar = new TreeMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setDate(stmt, 1, from);
+            SqlUtils.setDate(stmt, 2, to);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Treatment treatment = mapResultSetToTreatment(rs);
+                    calendar.computeIfAbsent(treatment.getNextDueDate(), day -> new EnumMap<>(TreatmentType.class))
+                            .computeIfAbsent(treatment.getType(), type -> new ArrayList<>())
+                            .add(treatment);
+                }
+            }
+        }
+        
+        return calendar;
+    }
+    
+    /**
+     * Get the treatments due from today to the given number of days ahead
+     */
+    public SortedMap<LocalDate, Map<TreatmentType, List<Treatment>>> dueWithin(int days) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return dueBetween(today, today.plusDays(days));
+    }
+    
+    /**
+     * Get the IDs of the treatments due between two days, both included, by day.
+     * Answered from the in-memory due date index when it is enabled, loading it
+     * on first use, or from the database otherwise.
+     */
+    public SortedMap<LocalDate, List<Integer>> dueIdsBetween(LocalDate from, LocalDate to) throws SQLException {
+        if (DUE_INDEX_ENABLED && ensureDueIndexLoaded()) {
+            return DUE_INDEX.idsBetween(from, to);
+        }
+        
+        String query = "SELECT id, next_due_date FROM treatments WHERE next_due_date >= ? AND next_due_date <= ? " +
+                       "ORDER BY next_due_date, id";
+        SortedMap<LocalDate, List<Integer>> ids = new TreeMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setDate(stmt, 1, from);
+            SqlUtils.setDate(stmt, 2, to);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.computeIfAbsent(SqlUtils.getDate(rs, "next_due_date"), day -> new ArrayList<>())
+                       .add(rs.getInt("id"));
+                }
+            }
+        }
+        
+        return ids;
+    }
+    
+    /**
+     * Get the shared in-memory due date index, loading it if needed
+     */
+    public DueDateIndex getDueIndex() throws SQLException {
+        ensureDueIndexLoaded();
+        return DUE_INDEX;
+    }
+    
+    /**
+     * Get the next page of treatments, ordered by ID
+     * @param afterId ID of the last treatment of the previous page, 0 for the first page
+     * @param limit Maximum number of treatments to return
+     */
+    public List<Treatment> getPage(int afterId, int limit) throws SQLException {
+        String query = "SELECT * FROM treatments WHERE id > ? ORDER BY id LIMIT ?";
+        List<Treatment> treatments = new ArrayList<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    treatments.add(mapResultSetToTreatment(rs));
+                }
+            }
+        }
+        
+        return treatments;
+    }
+    
+    /**
+     * Get the total number of treatments
+     */
+    public int count() throws SQLException {
+        return SqlUtils.count(pool, "treatments");
+    }
+    
+    /**
+     * Stream every treatment, ordered by animal ID then treatment ID, reading rows
+     * from the database as the stream is consumed. Close the stream when done.
+     */
+    public Stream<Treatment> stream() throws SQLException {
+        return SqlUtils.stream(pool, "SELECT * FROM treatments ORDER BY animal_id, id", this::mapResultSetToTreatment);
+    }
+    
+    /**
+     * Pass every treatment to the action, in the order of {@link #stream()},
+     * without holding more than one fetch of rows in memory
+     */
+    public void forEach(Consumer<Treatment> action) throws SQLException {
+        try (Stream<Treatment> treatments = stream()) {
+            treatments.forEach(action);
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Get the treatments of every animal whose ID is returned by the given
+     * sub-query, grouped by animal ID
+     */
+    Map<Integer, List<Treatment>> getAllByAnimalIdQuery(String animalIdQuery, Object... params) throws SQLException {
+        String query = "SELECT * FROM treatments WHERE animal_id IN (" + animalIdQuery + ") " +
+                       "ORDER BY animal_id, id";
+        Map<Integer, List<Treatment>> treatments = new HashMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            SqlUtils.setParameters(stmt, params);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    treatments.computeIfAbsent(rs.getInt("animal_id"), id -> new ArrayList<>())
+                              .add(mapResultSetToTreatment(rs));
+                }
+            }
+        }
+        
+        return treatments;
+    }
+    
     /**
      * Update a treatment in the database
      */
@@ -102,29 +378,182 @@ public class TreatmentDAO {
         String query = "UPDATE treatments SET type = ?, name = ?, description = ?, " +
                       "administration_date = ?, next_due_date = ?, administered = ? WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, treatment.getType().toString());
             stmt.setString(2, treatment.getName());
             stmt.setString(3, treatment.getDescription());
-            stmt.setString(4, treatment.getAdministrationDate() != null ? treatment.getAdministrationDate().toString() : null);
-            stmt.setString(5, treatment.getNextDueDate() != null ? treatment.getNextDueDate().toString() : null);
+            SqlUtils.setDate(stmt, 4, treatment.getAdministrationDate());
+            SqlUtils.setDate(stmt, 5, treatment.getNextDueDate());
             stmt.setBoolean(6, treatment.isAdministered());
             stmt.setInt(7, treatment.getId());
             
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                publishSaved(treatment);
+                AnimalDAO.publishFacets(connection, "a.id = (SELECT animal_id FROM treatments WHERE id = ?)",
+                        treatment.getId());
+            }
+            return updated;
         }
     }
     
+    /**
+     * Mark several treatments as administered on the given day, in one transaction
+     * with a batched UPDATE. The next due date of each treatment is computed by
+     * {@code nextDueDate}, which sees the treatment already marked as administered
+     * but still holding its previous due date.
+     * @return The outcome for each distinct ID, in the order given
+     */
+    public Map<Integer, AdministerOutcome> administerAll(Collection<Integer> treatmentIds, LocalDate administeredOn,
+                                                         Function<Treatment, LocalDate> nextDueDate) throws SQLException {
+        return administerAll(treatmentIds, administeredOn, nextDueDate, null);
+    }
+    
+    /**
+     * Administer several treatments like {@link #administerAll(Collection, LocalDate, Function)},
+     * then insert their follow-up treatments in the same transaction. {@code followUp}
+     * receives each administered treatment and the number of doses of that
+     * treatment the animal has received, this one included, and returns the
+     * pending treatment to create or null. No follow-up is created while the
+     * animal already has a pending treatment of the same type and name.
+     * @param followUp Plans follow-up treatments, may be null
+     * @return The outcome for each distinct ID, in the order given
+     */
+    public Map<Integer, AdministerOutcome> administerAll(Collection<Integer> treatmentIds, LocalDate administeredOn,
+                                                         Function<Treatment, LocalDate> nextDueDate,
+                                                         BiFunction<Treatment, Integer, Treatment> followUp)
+            throws SQLException {
+        Set<Integer> ids = new LinkedHashSet<>(treatmentIds);
+        Map<Integer, AdministerOutcome> outcomes = new LinkedHashMap<>();
+        if (ids.isEmpty()) {
+            return outcomes;
+        }
+        
+        String query = "UPDATE treatments SET administered = ?, administration_date = ?, next_due_date = ? WHERE id = ?";
+        
+        return pool.inTransaction(connection -> {
+            // Read on the writer, inside the transaction
+            Map<Integer, Treatment> treatments = getByIds(ids);
+            List<Treatment> administered = new ArrayList<>();
+            
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                for (Integer id : ids) {
+                    Treatment treatment = treatments.get(id);
+                    if (treatment == null) {
+                        outcomes.put(id, AdministerOutcome.NOT_FOUND);
+                        continue;
+                    }
+                    
+                    treatment.setAdministered(true);
+                    treatment.setAdministrationDate(administeredOn);
+                    try {
+                        treatment.setNextDueDate(nextDueDate.apply(treatment));
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        outcomes.put(id, AdministerOutcome.FAILED);
+                        continue;
+                    }
+                    
+                    stmt.setBoolean(1, true);
+                    SqlUtils.setDate(stmt, 2, administeredOn);
+                    SqlUtils.setDate(stmt, 3, treatment.getNextDueDate());
+                    stmt.setInt(4, id);
+                    stmt.addBatch();
+                    
+                    administered.add(treatment);
+                    outcomes.put(id, AdministerOutcome.ADMINISTERED);
+                    
+                    if (administered.size() % SqlUtils.BATCH_SIZE == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+            
+            List<Integer> animalIds = new ArrayList<>();
+            for (Treatment treatment : administered) {
+                publishSaved(treatment);
+                animalIds.add(treatment.getAnimalId());
+            }
+            AnimalDAO.publishFacets(connection, animalIds);
+            if (followUp != null && !administered.isEmpty()) {
+                saveFollowUps(connection, administered, followUp);
+            }
+            return outcomes;
+        });
+    }
+    
+    /**
+     * Create a pending treatment due on the given day for every animal of the
+     * species that has no pending treatment of the same type and name yet. The
+     * animals are selected and the treatments inserted in batches within one
+     * transaction.
+     * @param species Species of the animals, compared ignoring case
+     * @param dose Template of the treatment to create, copied for each animal
+     * @return The number of treatments created
+     */
+    public int scheduleForSpecies(String species, Treatment dose) throws SQLException {
+        String query = "SELECT a.id FROM animals a WHERE a.species = ? COLLATE NOCASE AND NOT EXISTS (" +
+                       "SELECT 1 FROM treatments t WHERE t.animal_id = a.id AND t.type = ? " +
+                       "AND t.name = ? COLLATE NOCASE AND t.administered = 0) ORDER BY a.id";
+        
+        return pool.inTransaction(connection -> {
+            List<Integer> animalIds = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, species);
+                stmt.setString(2, dose.getType().toString());
+                stmt.setString(3, dose.getName());
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        animalIds.add(rs.getInt(1));
+                    }
+                }
+            }
+            
+            int[] ids = new int[animalIds.size()];
+            List<Treatment> treatments = new ArrayList<>(animalIds.size());
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = animalIds.get(i);
+                treatments.add(copyOf(dose));
+            }
+            
+            saveAll(ids, treatments);
+            return treatments.size();
+        });
+    }
+    
     /**
      * Delete a treatment from the database
      */
     public boolean delete(int id) throws SQLException {
         String query = "DELETE FROM treatments WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            int animalId = 0;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT animal_id FROM treatments WHERE id = ?")) {
+                select.setInt(1, id);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        animalId = rs.getInt(1);
+                    }
+                }
+            }
+            
             stmt.setInt(1, id);
             
-            return stmt.executeUpdate() > 0;
+            boolean deleted = stmt.executeUpdate() > 0;
+            if (deleted) {
+                AnimalDAO.publishFacets(connection, "a.id = ?", animalId);
+                pool.afterCommit(() -> {
+                    DUE_INDEX.remove(id);
+                    notifyListeners(listener -> listener.treatmentDeleted(id));
+                });
+            }
+            return deleted;
         }
     }
     
@@ -134,11 +563,162 @@ public class TreatmentDAO {
     public boolean deleteAllByAnimalId(int animalId) throws SQLException {
         String query = "DELETE FROM treatments WHERE animal_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = pool.getWriteConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, animalId);
             
-            return stmt.executeUpdate() > 0;
+            boolean deleted = stmt.executeUpdate() > 0;
+            if (deleted) {
+                AnimalDAO.publishFacets(connection, "a.id = ?", animalId);
+                pool.afterCommit(() -> {
+                    // The index does not know which treatments belong to the animal
+                    DUE_INDEX.invalidate();
+                    notifyListeners(listener -> listener.animalTreatmentsDeleted(animalId));
+                });
+            }
+            return deleted;
+        }
+    }
+    
+    /**
+     * Register a listener notified of every committed treatment change
+     */
+    public static void addChangeListener(TreatmentChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+    
+    public static void removeChangeListener(TreatmentChangeListener listener) {
+        LISTENERS.remove(listener);
+    }
+    
+    /**
+     * Once the write commits, record the treatment's due date in the in-memory
+     * index and notify the listeners
+     */
+    private void publishSaved(Treatment treatment) {
+        int treatmentId = treatment.getId();
+        LocalDate dueDate = treatment.getNextDueDate();
+        
+        pool.afterCommit(() -> {
+            DUE_INDEX.put(treatmentId, dueDate);
+            notifyListeners(listener -> listener.treatmentSaved(treatment));
+        });
+    }
+    
+    private static void notifyListeners(Consumer<TreatmentChangeListener> event) {
+        for (TreatmentChangeListener listener : LISTENERS) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Fill the due date index from the database if it is not loaded yet
+     * @return Whether the index is loaded; false if a write raced with the load
+     */
+    private boolean ensureDueIndexLoaded() throws SQLException {
+        if (DUE_INDEX.isLoaded()) {
+            return true;
+        }
+        
+        long version = DUE_INDEX.getVersion();
+        Map<Integer, LocalDate> dueDates = new HashMap<>();
+        
+        try (Connection connection = pool.getReadConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, next_due_date FROM treatments WHERE next_due_date IS NOT NULL")) {
+            while (rs.next()) {
+                dueDates.put(rs.getInt("id"), SqlUtils.getDate(rs, "next_due_date"));
+            }
+        }
+        
+        return DUE_INDEX.load(dueDates, version);
+    }
+    
+    /**
+     * Insert the follow-ups planned for just administered treatments, skipping
+     * those whose animal already has the same treatment pending
+     */
+    private void saveFollowUps(Connection connection, List<Treatment> administered,
+                               BiFunction<Treatment, Integer, Treatment> followUp) throws SQLException {
+        Set<Integer> animalIds = new LinkedHashSet<>();
+        for (Treatment treatment : administered) {
+            animalIds.add(treatment.getAnimalId());
+        }
+        
+        // Per animal, type and name: administered doses, then pending treatments
+        Map<String, int[]> history = new HashMap<>();
+        List<Integer> idList = new ArrayList<>(animalIds);
+        for (int start = 0; start < idList.size(); start += SqlUtils.MAX_PARAMETERS) {
+            List<Integer> chunk = idList.subList(start, Math.min(start + SqlUtils.MAX_PARAMETERS, idList.size()));
+            String query = "SELECT animal_id, type, name, administered FROM treatments WHERE animal_id IN (" +
+                           SqlUtils.placeholders(chunk.size()) + ")";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                SqlUtils.setParameters(stmt, chunk.toArray());
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String key = historyKey(rs.getInt("animal_id"), rs.getString("type"), rs.getString("name"));
+                        history.computeIfAbsent(key, k -> new int[2])[rs.getBoolean("administered") ? 0 : 1]++;
+                    }
+                }
+            }
+        }
+        
+        List<Treatment> followUps = new ArrayList<>();
+        List<Integer> followUpAnimalIds = new ArrayList<>();
+        for (Treatment treatment : administered) {
+            int[] counts = history.computeIfAbsent(historyKey(treatment.getAnimalId(),
+                    treatment.getType().toString(), treatment.getName()), k -> new int[2]);
+            if (counts[1] > 0) {
+                continue;
+            }
+            
+            Treatment next = followUp.apply(treatment, counts[0]);
+            if (next != null) {
+                followUps.add(next);
+                followUpAnimalIds.add(treatment.getAnimalId());
+                counts[1]++;
+            }
+        }
+        
+        int[] ids = new int[followUpAnimalIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = followUpAnimalIds.get(i);
         }
+        saveAll(ids, followUps);
+    }
+    
+    private static String historyKey(int animalId, String type, String name) {
+        return animalId + "|" + type + "|" + (name != null ? TreatmentProtocol.normalizeName(name) : "");
+    }
+    
+    private static Treatment copyOf(Treatment treatment) {
+        Treatment copy = new Treatment();
+        copy.setType(treatment.getType());
+        copy.setName(treatment.getName());
+        copy.setDescription(treatment.getDescription());
+        copy.setAdministrationDate(treatment.getAdministrationDate());
+        copy.setNextDueDate(treatment.getNextDueDate());
+        copy.setAdministered(treatment.isAdministered());
+        return copy;
+    }
+    
+    /**
+     * Bind the columns of the INSERT statement
+     */
+    private void bindInsert(PreparedStatement stmt, int animalId, Treatment treatment) throws SQLException {
+        stmt.setInt(1, animalId);
+        stmt.setString(2, treatment.getType().toString());
+        stmt.setString(3, treatment.getName());
+        stmt.setString(4, treatment.getDescription());
+        SqlUtils.setDate(stmt, 5, treatment.getAdministrationDate());
+        SqlUtils.setDate(stmt, 6, treatment.getNextDueDate());
+        stmt.setBoolean(7, treatment.isAdministered());
     }
     
     /**
@@ -147,20 +727,12 @@ public class TreatmentDAO {
     private Treatment mapResultSetToTreatment(ResultSet rs) throws SQLException {
         Treatment treatment = new Treatment();
         treatment.setId(rs.getInt("id"));
+        treatment.setAnimalId(rs.getInt("animal_id"));
         treatment.setType(TreatmentType.valueOf(rs.getString("type")));
         treatment.setName(rs.getString("name"));
         treatment.setDescription(rs.getString("description"));
-        
-        String adminDateStr = rs.getString("administration_date");
-        if (adminDateStr != null && !adminDateStr.isEmpty()) {
-            treatment.setAdministrationDate(LocalDate.parse(adminDateStr));
-        }
-        
-        String nextDueDateStr = rs.getString("next_due_date");
-        if (nextDueDateStr != null && !nextDueDateStr.isEmpty()) {
-            treatment.setNextDueDate(LocalDate.parse(nextDueDateStr));
-        }
-        
+        treatment.setAdministrationDate(SqlUtils.getDate(rs, "administration_date"));
+        treatment.setNextDueDate(SqlUtils.getDate(rs, "next_due_date"));
         treatment.setAdministered(rs.getBoolean("administered"));
         
         return treatment;
@@ -0,0 +1,20 @@
+package com.mis.db;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps an SQLException thrown where a checked exception cannot be, such as
+ * while a stream returned by a DAO is being consumed
+ */
+public class UncheckedSQLException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    public UncheckedSQLException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+    
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
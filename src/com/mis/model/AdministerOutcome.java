@@ -0,0 +1,10 @@
+package com.mis.model;
+
+/**
+ * Result of administering one treatment of a bulk administration
+ */
+public enum AdministerOutcome {
+    ADMINISTERED,
+    NOT_FOUND,
+    FAILED
+}
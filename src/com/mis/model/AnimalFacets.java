@@ -0,0 +1,52 @@
+package com.mis.model;
+
+/**
+ * Values of an animal the animal list can be filtered on, read without loading
+ * the animal's relations
+ */
+public class AnimalFacets {
+    private final int animalId;
+    private final String species;
+    private final String size;
+    private final BoxStatus boxStatus;
+    private final boolean vaccinationUpToDate;
+    
+    /**
+     * @param boxStatus Status of the animal's box, null when it has none
+     */
+    public AnimalFacets(int animalId, String species, String size, BoxStatus boxStatus, boolean vaccinationUpToDate) {
+        this.animalId = animalId;
+        this.species = species;
+        this.size = size;
+        this.boxStatus = boxStatus;
+        this.vaccinationUpToDate = vaccinationUpToDate;
+    }
+    
+    /**
+     * Facets of an animal already loaded with its box and treatments
+     */
+    public static AnimalFacets of(Animal animal) {
+        return new AnimalFacets(animal.getId(), animal.getSpecies(), animal.getSize(),
+                animal.getBox() != null ? animal.getBox().getStatus() : null, animal.isVaccinationUpToDate());
+    }
+    
+    public int getAnimalId() {
+        return animalId;
+    }
+    
+    public String getSpecies() {
+        return species;
+    }
+    
+    public String getSize() {
+        return size;
+    }
+    
+    public BoxStatus getBoxStatus() {
+        return boxStatus;
+    }
+    
+    public boolean isVaccinationUpToDate() {
+        return vaccinationUpToDate;
+    }
+}
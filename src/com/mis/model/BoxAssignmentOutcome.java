@@ -0,0 +1,10 @@
+package com.mis.model;
+
+/**
+ * Result of placing an animal in a box
+ */
+public enum BoxAssignmentOutcome {
+    ASSIGNED,
+    BOX_UNAVAILABLE,
+    NOT_FOUND
+}
@@ -0,0 +1,98 @@
+package com.mis.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outcome of a search for owners entered twice: the likely duplicate pairs,
+ * best first, and how much comparing it took
+ */
+public class DuplicateOwnerReport {
+    
+    /**
+     * What two owners were found to share
+     */
+    public enum Match {
+        NAME,
+        PHONE,
+        EMAIL,
+        POSTCODE
+    }
+    
+    /**
+     * Two owners that are likely the same person. The older record is the one
+     * to keep, the newer one the duplicate to merge into it.
+     */
+    public static class Candidate {
+        private final Owner kept;
+        private final Owner duplicate;
+        private final double score;
+        private final Set<Match> matches;
+        
+        public Candidate(Owner kept, Owner duplicate, double score, Set<Match> matches) {
+            this.kept = kept;
+            this.duplicate = duplicate;
+            this.score = score;
+            this.matches = matches.isEmpty() ? EnumSet.noneOf(Match.class) : EnumSet.copyOf(matches);
+        }
+        
+        public Owner getKept() {
+            return kept;
+        }
+        
+        public Owner getDuplicate() {
+            return duplicate;
+        }
+        
+        /**
+         * Likelihood of being the same owner, from 0 to 1
+         */
+        public double getScore() {
+            return score;
+        }
+        
+        public Set<Match> getMatches() {
+            return Collections.unmodifiableSet(matches);
+        }
+    }
+    
+    private final List<Candidate> candidates = new ArrayList<>();
+    private final int ownerCount;
+    private final int blockCount;
+    private final long comparisonCount;
+    
+    public DuplicateOwnerReport(List<Candidate> candidates, int ownerCount, int blockCount, long comparisonCount) {
+        this.candidates.addAll(candidates);
+        this.ownerCount = ownerCount;
+        this.blockCount = blockCount;
+        this.comparisonCount = comparisonCount;
+    }
+    
+    public List<Candidate> getCandidates() {
+        return Collections.unmodifiableList(candidates);
+    }
+    
+    /**
+     * Number of owners examined
+     */
+    public int getOwnerCount() {
+        return ownerCount;
+    }
+    
+    /**
+     * Number of blocks of owners sharing a key that were compared
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+    
+    /**
+     * Number of owner pairs compared, instead of n(n-1)/2 for every pair
+     */
+    public long getComparisonCount() {
+        return comparisonCount;
+    }
+}
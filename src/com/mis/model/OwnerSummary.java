@@ -0,0 +1,32 @@
+package com.mis.model;
+
+/**
+ * Owner listed with the number of animals it owns, counted by the database
+ * without loading the animals
+ */
+public class OwnerSummary {
+    private final Owner owner;
+    private final int animalCount;
+    private final int overdueAnimalCount;
+    
+    public OwnerSummary(Owner owner, int animalCount, int overdueAnimalCount) {
+        this.owner = owner;
+        this.animalCount = animalCount;
+        this.overdueAnimalCount = overdueAnimalCount;
+    }
+    
+    public Owner getOwner() {
+        return owner;
+    }
+    
+    public int getAnimalCount() {
+        return animalCount;
+    }
+    
+    /**
+     * Number of the owner's animals with at least one overdue treatment
+     */
+    public int getOverdueAnimalCount() {
+        return overdueAnimalCount;
+    }
+}
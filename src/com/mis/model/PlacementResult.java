@@ -0,0 +1,36 @@
+package com.mis.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of placing a batch of animals in boxes: the box each placed animal
+ * went to, and the animals left without one
+ */
+public class PlacementResult {
+    private final Map<Animal, Box> placements = new LinkedHashMap<>();
+    private final List<Animal> unplaced = new ArrayList<>();
+    
+    public void addPlacement(Animal animal, Box box) {
+        placements.put(animal, box);
+    }
+    
+    public void addUnplaced(Animal animal) {
+        unplaced.add(animal);
+    }
+    
+    public Map<Animal, Box> getPlacements() {
+        return Collections.unmodifiableMap(placements);
+    }
+    
+    public List<Animal> getUnplaced() {
+        return Collections.unmodifiableList(unplaced);
+    }
+    
+    public int getPlacedCount() {
+        return placements.size();
+    }
+}
@@ -0,0 +1,51 @@
+package com.mis.model;
+
+/**
+ * Animal or owner matching a full-text search, with the text it was found by
+ */
+public class SearchResult {
+    
+    public enum Kind {
+        ANIMAL,
+        OWNER
+    }
+    
+    private final Kind kind;
+    private final int id;
+    private final String name;
+    private final String detail;
+    
+    public SearchResult(Kind kind, int id, String name, String detail) {
+        this.kind = kind;
+        this.id = id;
+        this.name = name;
+        this.detail = detail;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /**
+     * ID of the animal or owner
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Species, breed and owner of an animal, or email and phone of an owner
+     */
+    public String getDetail() {
+        return detail;
+    }
+    
+    @Override
+    public String toString() {
+        return detail.isEmpty() ? name : name + " (" + detail + ")";
+    }
+}
@@ -7,6 +7,7 @@ import java.time.LocalDate;
  */
 public class Treatment {
     private int id;
+    private int animalId;
     private TreatmentType type;
     private String name;
     private String description;
@@ -46,6 +47,14 @@ public class Treatment {
         this.id = id;
     }
     
+    public int getAnimalId() {
+        return animalId;
+    }
+    
+    public void setAnimalId(int animalId) {
+        this.animalId = animalId;
+    }
+    
     public TreatmentType getType() {
         return type;
     }
@@ -0,0 +1,114 @@
+package com.mis.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recurring schedule of a treatment, identified by its type and name: the number
+ * of days from each dose to the next one, the last interval optionally repeating
+ * forever. A vaccine with a booster after 21 days and then yearly boosters has
+ * the intervals 21 and 365, with the last one repeating.
+ */
+public class TreatmentProtocol {
+    private final TreatmentType type;
+    private final String name;
+    private final String description;
+    private final List<Integer> intervals;
+    private final boolean repeatLast;
+    
+    public TreatmentProtocol(TreatmentType type, String name, String description,
+                             List<Integer> intervals, boolean repeatLast) {
+        if (type == null || name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("A protocol needs a treatment type and a name");
+        }
+        for (Integer interval : intervals) {
+            if (interval == null || interval <= 0) {
+                throw new IllegalArgumentException("Protocol intervals must be positive: " + intervals);
+            }
+        }
+        if (repeatLast && intervals.isEmpty()) {
+            throw new IllegalArgumentException("A repeating protocol needs at least one interval");
+        }
+        
+        this.type = type;
+        this.name = name.trim();
+        this.description = description;
+        this.intervals = Collections.unmodifiableList(new ArrayList<>(intervals));
+        this.repeatLast = repeatLast;
+    }
+    
+    /**
+     * Whether the treatment follows this protocol: same type, name compared
+     * ignoring case
+     */
+    public boolean matches(Treatment treatment) {
+        return type == treatment.getType() && treatment.getName() != null
+                && normalizeName(name).equals(normalizeName(treatment.getName()));
+    }
+    
+    /**
+     * Due date of the dose following the given one
+     * @param doseNumber Number of doses administered so far, 1 after the first dose
+     * @param administeredOn Day the last dose was administered
+     * @return The next due date, or null once the series is complete
+     */
+    public LocalDate nextDueDate(int doseNumber, LocalDate administeredOn) {
+        int index = Math.max(doseNumber, 1) - 1;
+        if (index >= intervals.size()) {
+            if (!repeatLast) {
+                return null;
+            }
+            index = intervals.size() - 1;
+        }
+        
+        return administeredOn.plusDays(intervals.get(index));
+    }
+    
+    /**
+     * New pending dose of this protocol, due on the given day
+     */
+    public Treatment createDose(LocalDate dueDate) {
+        Treatment treatment = new Treatment();
+        treatment.setType(type);
+        treatment.setName(name);
+        treatment.setDescription(description);
+        treatment.setNextDueDate(dueDate);
+        treatment.setAdministered(false);
+        return treatment;
+    }
+    
+    /**
+     * Form of a treatment name used to look protocols up
+     */
+    public static String normalizeName(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    public TreatmentType getType() {
+        return type;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public List<Integer> getIntervals() {
+        return intervals;
+    }
+    
+    public boolean isRepeatLast() {
+        return repeatLast;
+    }
+    
+    @Override
+    public String toString() {
+        return type + " - " + name;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mis.ui;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.mis.model.AnimalFacets;
+
+/**
+ * Inverted index of the rows of the animal table: for each value of each facet,
+ * a bitset of the rows holding it, bit i being model row i. A filter ORs the
+ * bitsets of the values selected within a facet and ANDs the facets together,
+ * so it runs in microseconds without reading the rows or querying the database.
+ *
+ * Values are grouped ignoring case; an animal without a size or a box is indexed
+ * under the empty string.
+ */
+class AnimalFacetIndex {
+    
+    enum Facet {
+        SPECIES,
+        SIZE,
+        BOX_STATUS,
+        VACCINATION
+    }
+    
+    private final Map<Facet, TreeMap<String, BitSet>> postings = new EnumMap<>(Facet.class);
+    private final int size;
+    
+    /**
+     * @param rows Facets of each table row, in row order
+     */
+    AnimalFacetIndex(List<AnimalFacets> rows) {
+        for (Facet facet : Facet.values()) {
+            postings.put(facet, new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+        }
+        
+        for (int row = 0; row < rows.size(); row++) {
+            AnimalFacets facets = rows.get(row);
+            add(Facet.SPECIES, facets.getSpecies(), row);
+            add(Facet.SIZE, facets.getSize(), row);
+            add(Facet.BOX_STATUS, facets.getBoxStatus() != null ? facets.getBoxStatus().toString() : null, row);
+            add(Facet.VACCINATION, Boolean.toString(facets.isVaccinationUpToDate()), row);
+        }
+        size = rows.size();
+    }
+    
+    /**
+     * Index without rows
+     */
+    static AnimalFacetIndex empty() {
+        return new AnimalFacetIndex(Collections.emptyList());
+    }
+    
+    /**
+     * Number of indexed rows
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Values of a facet found in the rows, sorted
+     */
+    List<String> getValues(Facet facet) {
+        return new ArrayList<>(postings.get(facet).keySet());
+    }
+    
+    /**
+     * Rows matching a selection: one of the selected values of every facet with
+     * a selection. Facets missing from the selection, or with no value selected,
+     * match every row.
+     */
+    BitSet match(Map<Facet, Set<String>> selection) {
+        return matchExcept(selection, null);
+    }
+    
+    /**
+     * Number of rows holding each value of a facet among the rows matching the
+     * selection of the other facets, so the counts shown next to the values of
+     * a facet do not drop to zero as soon as one of them is selected
+     */
+    Map<String, Integer> count(Facet facet, Map<Facet, Set<String>> selection) {
+        BitSet base = matchExcept(selection, facet);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        
+        for (Map.Entry<String, BitSet> entry : postings.get(facet).entrySet()) {
+            BitSet rows = (BitSet) entry.getValue().clone();
+            rows.and(base);
+            counts.put(entry.getKey(), rows.cardinality());
+        }
+        return counts;
+    }
+    
+    private BitSet matchExcept(Map<Facet, Set<String>> selection, Facet ignored) {
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        
+        for (Map.Entry<Facet, Set<String>> entry : selection.entrySet()) {
+            if (entry.getKey() == ignored || entry.getValue().isEmpty()) {
+                continue;
+            }
+            
+            BitSet any = new BitSet(size);
+            Map<String, BitSet> values = postings.get(entry.getKey());
+            for (String value : entry.getValue()) {
+                BitSet rows = values.get(value);
+                if (rows != null) {
+                    any.or(rows);
+                }
+            }
+            result.and(any);
+        }
+        return result;
+    }
+    
+    private void add(Facet facet, String value, int row) {
+        String key = value != null ? value.trim() : "";
+        postings.get(facet).computeIfAbsent(key, k -> new BitSet()).set(row);
+    }
+}
@@ -0,0 +1,205 @@
+package com.mis.ui;
+
+import java.awt.BorderLayout;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import javax.swing.RowFilter;
+import javax.swing.border.TitledBorder;
+
+import com.mis.ui.AnimalFacetIndex.Facet;
+import com.mis.util.Messages;
+
+/**
+ * Facet filters of the animal table: one check box per value of the species,
+ * size, box status and vaccination status of the rows, with the number of rows
+ * holding it. Checked values of a facet are ORed, facets are ANDed, and every
+ * click is answered from the in-memory AnimalFacetIndex.
+ */
+class AnimalFilterPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+    
+    private final Runnable onChange;
+    private final Map<Facet, Set<String>> selection = new EnumMap<>(Facet.class);
+    private final Map<Facet, JPanel> facetPanels = new EnumMap<>(Facet.class);
+    private final Map<Facet, Map<String, JCheckBox>> checkBoxes = new EnumMap<>(Facet.class);
+    
+    private AnimalFacetIndex index = AnimalFacetIndex.empty();
+    private BitSet matching = new BitSet();
+    
+    /**
+     * @param onChange Called on the Event Dispatch Thread when the selection changes
+     */
+    AnimalFilterPanel(Runnable onChange) {
+        this.onChange = onChange;
+        
+        setLayout(new BorderLayout());
+        setBorder(new TitledBorder(Messages.getString("animal.filter.title")));
+        
+        JPanel facetsPanel = new JPanel();
+        facetsPanel.setLayout(new BoxLayout(facetsPanel, BoxLayout.Y_AXIS));
+        for (Facet facet : Facet.values()) {
+            selection.put(facet, new TreeSet<>(String.CASE_INSENSITIVE_ORDER));
+            checkBoxes.put(facet, new LinkedHashMap<>());
+            
+            JPanel facetPanel = new JPanel();
+            facetPanel.setLayout(new BoxLayout(facetPanel, BoxLayout.Y_AXIS));
+            facetPanel.setBorder(new TitledBorder(getTitle(facet)));
+            facetPanels.put(facet, facetPanel);
+            facetsPanel.add(facetPanel);
+        }
+        add(facetsPanel, BorderLayout.NORTH);
+        
+        JButton clearButton = new JButton(Messages.getString("animal.filter.clear"));
+        clearButton.addActionListener(e -> clear());
+        add(clearButton, BorderLayout.SOUTH);
+    }
+    
+    /**
+     * Replace the indexed rows, e.g. after a refresh. Selected values still found
+     * in the rows stay selected.
+     */
+    void setIndex(AnimalFacetIndex index) {
+        this.index = index;
+        
+        for (Facet facet : Facet.values()) {
+            Set<String> selected = selection.get(facet);
+            selected.retainAll(index.getValues(facet));
+            
+            JPanel facetPanel = facetPanels.get(facet);
+            Map<String, JCheckBox> boxes = checkBoxes.get(facet);
+            facetPanel.removeAll();
+            boxes.clear();
+            
+            for (String value : index.getValues(facet)) {
+                JCheckBox checkBox = new JCheckBox();
+                checkBox.setSelected(selected.contains(value));
+                checkBox.addActionListener(e -> select(facet, value, checkBox.isSelected()));
+                boxes.put(value, checkBox);
+                facetPanel.add(checkBox);
+            }
+        }
+        
+        update();
+        revalidate();
+        repaint();
+    }
+    
+    /**
+     * Whether a value is checked, so some rows may be hidden
+     */
+    boolean isFiltering() {
+        for (Set<String> values : selection.values()) {
+            if (!values.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Filter keeping the model rows matching the checked values, or null when
+     * nothing is checked
+     */
+    RowFilter<AnimalTableModel, Integer> getRowFilter() {
+        if (!isFiltering()) {
+            return null;
+        }
+        
+        BitSet rows = matching;
+        return new RowFilter<AnimalTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends AnimalTableModel, ? extends Integer> entry) {
+                return rows.get(entry.getIdentifier());
+            }
+        };
+    }
+    
+    private void select(Facet facet, String value, boolean selected) {
+        if (selected) {
+            selection.get(facet).add(value);
+        } else {
+            selection.get(facet).remove(value);
+        }
+        update();
+    }
+    
+    private void clear() {
+        if (!isFiltering()) {
+            return;
+        }
+        
+        for (Facet facet : Facet.values()) {
+            selection.get(facet).clear();
+            for (JCheckBox checkBox : checkBoxes.get(facet).values()) {
+                checkBox.setSelected(false);
+            }
+        }
+        update();
+    }
+    
+    /**
+     * Recompute the matching rows and the count shown for every value
+     */
+    private void update() {
+        matching = index.match(selection);
+        
+        for (Facet facet : Facet.values()) {
+            Map<String, Integer> counts = index.count(facet, selection);
+            for (Map.Entry<String, JCheckBox> entry : checkBoxes.get(facet).entrySet()) {
+                entry.getValue().setText(getLabel(facet, entry.getKey()) + " (" + counts.get(entry.getKey()) + ")");
+            }
+        }
+        
+        onChange.run();
+    }
+    
+    private static String getTitle(Facet facet) {
+        switch (facet) {
+            case SPECIES:
+                return Messages.getString("animal.species");
+            case SIZE:
+                return Messages.getString("animal.size");
+            case BOX_STATUS:
+                return Messages.getString("animal.filter.boxstatus");
+            default:
+                return Messages.getString("animal.vaccinations");
+        }
+    }
+    
+    /**
+     * Displayed text of an indexed value
+     */
+    private static String getLabel(Facet facet, String value) {
+        if (value.isEmpty()) {
+            return Messages.getString(facet == Facet.BOX_STATUS ? "animal.filter.nobox" : "animal.filter.none");
+        }
+        
+        switch (facet) {
+            case SIZE:
+                if ("Small".equalsIgnoreCase(value)) {
+                    return Messages.getString("animal.size.small");
+                } else if ("Medium".equalsIgnoreCase(value)) {
+                    return Messages.getString("animal.size.medium");
+                } else if ("Large".equalsIgnoreCase(value)) {
+                    return Messages.getString("animal.size.large");
+                }
+                return value;
+            case BOX_STATUS:
+                return Messages.getString("box.status." + value.toLowerCase(Locale.ROOT));
+            case VACCINATION:
+                return Messages.getString(Boolean.parseBoolean(value) ? "yes" : "no");
+            default:
+                return value;
+        }
+    }
+}
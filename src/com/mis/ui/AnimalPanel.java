@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -26,14 +27,17 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
 import javax.swing.ListCellRenderer;
 import javax.swing.DefaultListCellRenderer;
 
 import com.mis.api.AnimalController;
+import com.mis.db.SearchDAO;
 import com.mis.model.Animal;
+import com.mis.model.AnimalFacets;
 import com.mis.model.Box;
 import com.mis.model.Owner;
+import com.mis.model.PlacementResult;
 import com.mis.util.Messages;
 
 /**
@@ -42,16 +46,40 @@ import com.mis.util.Messages;
 public class AnimalPanel extends JPanel {
     private static final long serialVersionUID = 1L;
     
+    /** Maximum number of animals shown for a search */
+    private static final int SEARCH_LIMIT = 200;
+    
+    /**
+     * Rows of the table and the facet index of those rows, loaded together so
+     * bit i of the index is always model row i
+     */
+    private static final class TableData {
+        private final AnimalTableModel.Layout layout;
+        private final List<Object[]> rows;
+        private final AnimalFacetIndex index;
+        
+        private TableData(AnimalTableModel.Layout layout, List<Object[]> rows, AnimalFacetIndex index) {
+            this.layout = layout;
+            this.rows = rows;
+            this.index = index;
+        }
+    }
+    
     private MainWindow mainWindow;
     private AnimalController animalController;
     
     private JTable animalTable;
-    private DefaultTableModel tableModel;
+    private AnimalTableModel tableModel;
+    private TableRowSorter<AnimalTableModel> sorter;
+    private AnimalFilterPanel filterPanel;
+    private TableLoader loader;
+    private SearchField searchField;
     private JButton addButton;
     private JButton editButton;
     private JButton deleteButton;
     private JButton assignBoxButton;
     private JButton assignOwnerButton;
+    private JButton placeAllButton;
     private JButton treatmentsButton;
     
     /**
@@ -71,33 +99,51 @@ public class AnimalPanel extends JPanel {
     private void initializeUI() {
         setLayout(new BorderLayout());
         
-        // Create table model
-        tableModel = new DefaultTableModel() {
-            private static final long serialVersionUID = 1L;
-            
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
+        // Create table model: rows are read one page at a time as they are displayed
+        String[] columnNames = {
+            "ID",
+            Messages.getString("animal.name"),
+            Messages.getString("animal.species"),
+            Messages.getString("animal.breed"),
+            Messages.getString("animal.birthdate"),
+            Messages.getString("animal.gender"),
+            Messages.getString("animal.size"),
+            Messages.getString("animal.box"),
+            Messages.getString("animal.owner"),
+            Messages.getString("animal.vaccinations")
         };
+        tableModel = new AnimalTableModel(columnNames, animalController::getAnimalPage, this::toRow);
+        
+        loader = new TableLoader(this, "error.loading.animals");
+        
+        // Search box: the table shows the matching animals while it holds text
+        searchField = new SearchField(25, text -> refreshData());
+        searchField.setToolTipText(Messages.getString("search.animals.tooltip"));
+        
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel(Messages.getString("search.label") + ":"));
+        searchPanel.add(searchField);
         
-        // Add columns to table model
-        tableModel.addColumn("ID");
-        tableModel.addColumn(Messages.getString("animal.name"));
-        tableModel.addColumn(Messages.getString("animal.species"));
-        tableModel.addColumn(Messages.getString("animal.breed"));
-        tableModel.addColumn(Messages.getString("animal.birthdate"));
-        tableModel.addColumn(Messages.getString("animal.gender"));
-        tableModel.addColumn(Messages.getString("animal.size"));
-        tableModel.addColumn(Messages.getString("animal.box"));
-        tableModel.addColumn(Messages.getString("animal.owner"));
-        tableModel.addColumn(Messages.getString("animal.vaccinations"));
+        JPanel northPanel = new JPanel(new BorderLayout());
+        northPanel.add(searchPanel, BorderLayout.NORTH);
+        northPanel.add(loader.getIndicator(), BorderLayout.SOUTH);
+        add(northPanel, BorderLayout.NORTH);
         
         // Create table
         animalTable = new JTable(tableModel);
         animalTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         animalTable.getTableHeader().setReorderingAllowed(false);
         
+        // Row filter driven by the facet index. Sorting would read every page, so it is off.
+        sorter = new TableRowSorter<>(tableModel);
+        for (int column = 0; column < tableModel.getColumnCount(); column++) {
+            sorter.setSortable(column, false);
+        }
+        animalTable.setRowSorter(sorter);
+        
+        filterPanel = new AnimalFilterPanel(() -> sorter.setRowFilter(filterPanel.getRowFilter()));
+        add(new JScrollPane(filterPanel), BorderLayout.WEST);
+        
         // Create vaccination column renderer
         animalTable.getColumnModel().getColumn(9).setCellRenderer(new VaccinationCellRenderer());
         
@@ -113,6 +159,7 @@ public class AnimalPanel extends JPanel {
         deleteButton = new JButton(Messages.getString("animal.delete"));
         assignBoxButton = new JButton(Messages.getString("animal.assign.box"));
         assignOwnerButton = new JButton(Messages.getString("animal.assign.owner"));
+        placeAllButton = new JButton(Messages.getString("animal.place.all"));
         treatmentsButton = new JButton(Messages.getString("animal.manage.treatments"));
         
         buttonPanel.add(addButton);
@@ -120,6 +167,7 @@ public class AnimalPanel extends JPanel {
         buttonPanel.add(deleteButton);
         buttonPanel.add(assignBoxButton);
         buttonPanel.add(assignOwnerButton);
+        buttonPanel.add(placeAllButton);
         buttonPanel.add(treatmentsButton);
         
         add(buttonPanel, BorderLayout.SOUTH);
@@ -128,7 +176,7 @@ public class AnimalPanel extends JPanel {
         editButton.addActionListener(e -> {
             int selectedRow = animalTable.getSelectedRow();
             if (selectedRow != -1) {
-                int animalId = (int) animalTable.getValueAt(selectedRow, 0);
+                int animalId = tableModel.getAnimalId(animalTable.convertRowIndexToModel(selectedRow));
                 try {
                     Animal animal = animalController.getAnimalById(animalId);
                     if (animal != null) {
@@ -150,7 +198,7 @@ public class AnimalPanel extends JPanel {
         deleteButton.addActionListener(e -> {
             int selectedRow = animalTable.getSelectedRow();
             if (selectedRow != -1) {
-                int animalId = (int) animalTable.getValueAt(selectedRow, 0);
+                int animalId = tableModel.getAnimalId(animalTable.convertRowIndexToModel(selectedRow));
                 int confirm = JOptionPane.showConfirmDialog(this,
                         Messages.getString("animal.delete.confirm"),
                         Messages.getString("warning"), JOptionPane.YES_NO_OPTION);
@@ -182,7 +230,7 @@ public class AnimalPanel extends JPanel {
         assignBoxButton.addActionListener(e -> {
             int selectedRow = animalTable.getSelectedRow();
             if (selectedRow != -1) {
-                int animalId = (int) animalTable.getValueAt(selectedRow, 0);
+                int animalId = tableModel.getAnimalId(animalTable.convertRowIndexToModel(selectedRow));
                 try {
                     Animal animal = animalController.getAnimalById(animalId);
                     if (animal == null) {
@@ -238,7 +286,7 @@ public class AnimalPanel extends JPanel {
         assignOwnerButton.addActionListener(e -> {
             int selectedRow = animalTable.getSelectedRow();
             if (selectedRow != -1) {
-                int animalId = (int) animalTable.getValueAt(selectedRow, 0);
+                int animalId = tableModel.getAnimalId(animalTable.convertRowIndexToModel(selectedRow));
                 // Implémentation de l'assignation de propriétaire
                 JOptionPane.showMessageDialog(this,
                         Messages.getString("feature.not.implemented"),
@@ -250,10 +298,12 @@ public class AnimalPanel extends JPanel {
             }
         });
         
+        placeAllButton.addActionListener(e -> showPlaceAllDialog());
+        
         treatmentsButton.addActionListener(e -> {
             int selectedRow = animalTable.getSelectedRow();
             if (selectedRow != -1) {
-                int animalId = (int) animalTable.getValueAt(selectedRow, 0);
+                int animalId = tableModel.getAnimalId(animalTable.convertRowIndexToModel(selectedRow));
                 mainWindow.showPanel("treatments");
                 // Ideally filter treatments for this animal
             } else {
@@ -265,56 +315,130 @@ public class AnimalPanel extends JPanel {
     }
     
     /**
-     * Refresh data in the table
+     * Refresh data in the table. Only the filterable values of every animal are
+     * taken here, in the background, giving the page keys and the facet index;
+     * they come from memory once read, and the rows themselves are loaded as they
+     * are displayed. While a search is active, the best matching animals are
+     * shown instead.
      */
     public void refreshData() {
-        tableModel.setRowCount(0);
+        String search = searchField.getSearch();
+        
+        loader.load(() -> {
+            if (SearchDAO.isSearchable(search)) {
+                List<Object[]> rows = new ArrayList<>();
+                List<AnimalFacets> facets = new ArrayList<>();
+                for (Animal animal : animalController.searchAnimals(search, SEARCH_LIMIT)) {
+                    rows.add(toRow(animal));
+                    facets.add(AnimalFacets.of(animal));
+                }
+                return new TableData(null, rows, new AnimalFacetIndex(facets));
+            }
+            
+            List<AnimalFacets> facets = animalController.getAnimalFacets();
+            List<Integer> ids = new ArrayList<>(facets.size());
+            for (AnimalFacets animal : facets) {
+                ids.add(animal.getAnimalId());
+            }
+            return new TableData(AnimalTableModel.Layout.of(ids), null, new AnimalFacetIndex(facets));
+        }, data -> {
+            filterPanel.setIndex(data.index);
+            if (data.layout != null) {
+                tableModel.reset(data.layout);
+            } else {
+                tableModel.reset(data.rows);
+            }
+        });
+    }
+    
+    /**
+     * Cancel a data load still running, when the panel is hidden
+     */
+    public void cancelLoading() {
+        loader.cancel();
+    }
+    
+    /**
+     * Build the table row of an animal
+     */
+    private Object[] toRow(Animal animal) {
+        Object[] rowData = new Object[11];
+        rowData[0] = animal.getId();
+        rowData[1] = animal.getName();
+        rowData[2] = animal.getSpecies();
+        rowData[3] = animal.getBreed();
+        rowData[4] = animal.getBirthDate() != null ? animal.getBirthDate().toString() : "";
+        rowData[5] = animal.getGender();
+        
+        // Size information - Traduire pour l'affichage
+        String sizeValue = animal.getSize();
+        String sizeDisplay = "";
+        if (sizeValue != null) {
+            if ("Small".equals(sizeValue)) {
+                sizeDisplay = Messages.getString("animal.size.small");
+            } else if ("Medium".equals(sizeValue)) {
+                sizeDisplay = Messages.getString("animal.size.medium");
+            } else if ("Large".equals(sizeValue)) {
+                sizeDisplay = Messages.getString("animal.size.large");
+            } else {
+                sizeDisplay = sizeValue; // Afficher la valeur brute si non reconnue
+            }
+        }
+        rowData[6] = sizeDisplay;
+        
+        // Box information
+        Box box = animal.getBox();
+        rowData[7] = box != null ? box.getName() : "";
         
+        // Owner information
+        Owner owner = animal.getOwner();
+        rowData[8] = owner != null ? owner.getFullName() : "";
+        
+        // Vaccination status
+        rowData[9] = animal.isVaccinationUpToDate();
+        
+        return rowData;
+    }
+    
+    /**
+     * Place every animal without a box in one pass, e.g. when a transport arrives
+     */
+    private void showPlaceAllDialog() {
         try {
-            List<Animal> animals = animalController.getAllAnimals();
+            List<Animal> animals = animalController.getAnimalsWithoutBox();
+            if (animals.isEmpty()) {
+                JOptionPane.showMessageDialog(this,
+                        Messages.getString("animal.place.none"),
+                        Messages.getString("info"), JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
             
-            for (Animal animal : animals) {
-                Object[] rowData = new Object[11];
-                rowData[0] = animal.getId();
-                rowData[1] = animal.getName();
-                rowData[2] = animal.getSpecies();
-                rowData[3] = animal.getBreed();
-                rowData[4] = animal.getBirthDate() != null ? animal.getBirthDate().toString() : "";
-                rowData[5] = animal.getGender();
-                
-                // Size information - Traduire pour l'affichage
-                String sizeValue = animal.getSize();
-                String sizeDisplay = "";
-                if (sizeValue != null) {
-                    if ("Small".equals(sizeValue)) {
-                        sizeDisplay = Messages.getString("animal.size.small");
-                    } else if ("Medium".equals(sizeValue)) {
-                        sizeDisplay = Messages.getString("animal.size.medium");
-                    } else if ("Large".equals(sizeValue)) {
-                        sizeDisplay = Messages.getString("animal.size.large");
-                    } else {
-                        sizeDisplay = sizeValue; // Afficher la valeur brute si non reconnue
-                    }
+            JCheckBox keepOwnersCheckBox = new JCheckBox(Messages.getString("animal.place.keepowners"), true);
+            int result = JOptionPane.showConfirmDialog(this, keepOwnersCheckBox,
+                    Messages.getString("animal.place.all") + " (" + animals.size() + ")",
+                    JOptionPane.OK_CANCEL_OPTION);
+            if (result != JOptionPane.OK_OPTION) {
+                return;
+            }
+            
+            PlacementResult placement = animalController.placeAll(animals, keepOwnersCheckBox.isSelected());
+            
+            StringBuilder message = new StringBuilder();
+            message.append(Messages.getString("animal.place.summary")).append(": ").append(placement.getPlacedCount());
+            if (!placement.getUnplaced().isEmpty()) {
+                message.append("\n").append(Messages.getString("animal.place.unplaced")).append(":");
+                for (Animal animal : placement.getUnplaced()) {
+                    message.append("\n - ").append(animal.getName());
                 }
-                rowData[6] = sizeDisplay;
-                
-                // Box information
-                Box box = animal.getBox();
-                rowData[7] = box != null ? box.getName() : "";
-                
-                // Owner information
-                Owner owner = animal.getOwner();
-                rowData[8] = owner != null ? owner.getFullName() : "";
-                
-                // Vaccination status
-                rowData[9] = animal.isVaccinationUpToDate();
-                
-                tableModel.addRow(rowData);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            
+            refreshData();
+            JOptionPane.showMessageDialog(this, message.toString(), Messages.getString("animal.place.all"),
+                    placement.getUnplaced().isEmpty() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+        } catch (SQLException ex) {
+            ex.printStackTrace();
             JOptionPane.showMessageDialog(this,
-                    Messages.getString("error.loading.animals") + ": " + e.getMessage(),
+                    Messages.getString("database.query.error") + ": " + ex.getMessage(),
                     Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
         }
     }
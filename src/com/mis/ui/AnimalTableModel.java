@@ -0,0 +1,245 @@
+package com.mis.ui;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+import com.mis.model.Animal;
+
+/**
+ * Table model of the animal list that keeps only a few pages of rows in memory.
+ * The row count and the keyset of every page are read up front; a page is then
+ * fetched in the background the first time the table asks for one of its cells,
+ * and the least recently used pages are dropped beyond MAX_CACHED_PAGES. A fixed
+ * list of rows, such as search results, can be shown instead. Must only be used
+ * from the Event Dispatch Thread.
+ */
+class AnimalTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_CACHED_PAGES = 20;
+    
+    /**
+     * Reads one page of animals, called off the Event Dispatch Thread
+     */
+    @FunctionalInterface
+    interface PageSource {
+        List<Animal> getPage(int afterId, int limit) throws SQLException;
+    }
+    
+    /**
+     * Row count and page keyset of the table, read together when it is refreshed
+     */
+    static final class Layout {
+        private final int rowCount;
+        private final List<Integer> pageStartIds;
+        
+        Layout(int rowCount, List<Integer> pageStartIds) {
+            this.rowCount = rowCount;
+            this.pageStartIds = pageStartIds;
+        }
+        
+        /**
+         * Layout of a table showing the animals with the given IDs, in ID order
+         */
+        static Layout of(List<Integer> ids) {
+            List<Integer> pageStartIds = new ArrayList<>();
+            pageStartIds.add(0);
+            for (int row = PAGE_SIZE; row < ids.size(); row += PAGE_SIZE) {
+                // A page starts after the last ID of the previous one
+                pageStartIds.add(ids.get(row - 1));
+            }
+            return new Layout(ids.size(), pageStartIds);
+        }
+    }
+    
+    private final String[] columnNames;
+    private final PageSource source;
+    private final Function<Animal, Object[]> rowMapper;
+    
+    // Access order: the eldest entry is the least recently displayed page
+    private final Map<Integer, Object[][]> pages = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> pendingPages = new HashSet<>();
+    
+    private List<Integer> pageStartIds = Collections.emptyList();
+    // Rows shown instead of the pages, such as search results, or null
+    private List<Object[]> fixedRows;
+    private int rowCount;
+    // Incremented on every reset so pages requested before it are ignored
+    private int generation;
+    
+    /**
+     * @param columnNames Column headers
+     * @param source Query reading a page of animals
+     * @param rowMapper Builds the cells of an animal's row, off the Event Dispatch Thread
+     */
+    AnimalTableModel(String[] columnNames, PageSource source, Function<Animal, Object[]> rowMapper) {
+        this.columnNames = columnNames;
+        this.source = source;
+        this.rowMapper = rowMapper;
+    }
+    
+    /**
+     * Replace the table content: every cached page is dropped and reloaded on demand
+     */
+    void reset(Layout layout) {
+        generation++;
+        pages.clear();
+        pendingPages.clear();
+        fixedRows = null;
+        rowCount = layout.rowCount;
+        pageStartIds = layout.pageStartIds;
+        fireTableDataChanged();
+    }
+    
+    /**
+     * Show the given rows, already built, instead of paging through every animal
+     */
+    void reset(List<Object[]> rows) {
+        generation++;
+        pages.clear();
+        pendingPages.clear();
+        fixedRows = rows;
+        rowCount = rows.size();
+        pageStartIds = Collections.emptyList();
+        fireTableDataChanged();
+    }
+    
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+    
+    /**
+     * Cell value, or null while the row's page is being loaded
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        Object[] rowData = getLoadedRow(row);
+        if (rowData == null) {
+            requestPage(row / PAGE_SIZE);
+            return null;
+        }
+        
+        return column < rowData.length ? rowData[column] : null;
+    }
+    
+    /**
+     * ID of the animal shown on a row. The row's page is read right away if it is
+     * not cached, which only happens when it was dropped while the row stayed selected.
+     * @return The animal ID, or -1 if the row could not be read
+     */
+    int getAnimalId(int row) {
+        Object[] rowData = getLoadedRow(row);
+        
+        if (rowData == null) {
+            int page = row / PAGE_SIZE;
+            try {
+                pages.put(page, fetchPage(pageStartIds, page));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return -1;
+            }
+            rowData = getLoadedRow(row);
+        }
+        
+        return rowData != null ? (int) rowData[0] : -1;
+    }
+    
+    private Object[] getLoadedRow(int row) {
+        if (fixedRows != null) {
+            return row < fixedRows.size() ? fixedRows.get(row) : null;
+        }
+        
+        Object[][] page = pages.get(row / PAGE_SIZE);
+        if (page == null) {
+            return null;
+        }
+        
+        int index = row % PAGE_SIZE;
+        return index < page.length ? page[index] : null;
+    }
+    
+    /**
+     * Load a page in the background, then repaint its rows
+     */
+    private void requestPage(int page) {
+        if (!pendingPages.add(page)) {
+            return;
+        }
+        
+        int requestGeneration = generation;
+        List<Integer> startIds = pageStartIds;
+        
+        new SwingWorker<Object[][], Void>() {
+            @Override
+            protected Object[][] doInBackground() throws SQLException {
+                return fetchPage(startIds, page);
+            }
+            
+            @Override
+            protected void done() {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                pendingPages.remove(page);
+                
+                try {
+                    pages.put(page, get());
+                    
+                    int firstRow = page * PAGE_SIZE;
+                    int lastRow = Math.min(firstRow + PAGE_SIZE, rowCount) - 1;
+                    if (firstRow <= lastRow) {
+                        fireTableRowsUpdated(firstRow, lastRow);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Retried the next time the table paints the page
+                    e.getCause().printStackTrace();
+                }
+            }
+        }.execute();
+    }
+    
+    private Object[][] fetchPage(List<Integer> startIds, int page) throws SQLException {
+        if (page >= startIds.size()) {
+            return new Object[0][];
+        }
+        
+        List<Animal> animals = source.getPage(startIds.get(page), PAGE_SIZE);
+        Object[][] rows = new Object[animals.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rowMapper.apply(animals.get(i));
+        }
+        return rows;
+    }
+}
@@ -3,6 +3,7 @@ package com.mis.ui;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
@@ -10,6 +11,7 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -21,10 +23,14 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.TitledBorder;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 
+import com.mis.db.BoxChangeListener;
 import com.mis.db.BoxDAO;
+import com.mis.db.BoxOccupancy;
 import com.mis.model.Box;
 import com.mis.model.BoxStatus;
 import com.mis.util.Messages;
@@ -40,6 +46,9 @@ public class BoxPanel extends JPanel {
     
     private JTable boxTable;
     private DefaultTableModel tableModel;
+    private DefaultTableModel occupancyModel;
+    private TableLoader loader;
+    private boolean refreshPending;
     private JButton addButton;
     private JButton editButton;
     private JButton deleteButton;
@@ -67,17 +76,23 @@ public class BoxPanel extends JPanel {
         tableModel.addColumn("Status");
         tableModel.addColumn("Current Animal");
         
+        loader = new TableLoader(this, tableModel, "database.error.generic");
+        add(loader.getIndicator(), BorderLayout.NORTH);
+        
         // Create table
         boxTable = new JTable(tableModel);
         boxTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         boxTable.getTableHeader().setReorderingAllowed(false);
         
         // Set custom renderer for the status column
-        boxTable.getColumnModel().getColumn(3).setCellRenderer(new StatusCellRenderer());
+        boxTable.getColumnModel().getColumn(4).setCellRenderer(new StatusCellRenderer());
         
         // Add table to scroll pane
+        JPanel centerPanel = new JPanel(new BorderLayout());
         JScrollPane scrollPane = new JScrollPane(boxTable);
-        add(scrollPane, BorderLayout.CENTER);
+        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        centerPanel.add(createOccupancyPanel(), BorderLayout.SOUTH);
+        add(centerPanel, BorderLayout.CENTER);
         
         // Create button panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -107,7 +122,11 @@ public class BoxPanel extends JPanel {
                 if (selectedRow >= 0) {
                     int boxId = (int) tableModel.getValueAt(selectedRow, 0);
                     try {
-                        Box box = boxDAO.getById(boxId);
+                        // The occupancy holds the box with its current animal
+                        Box box = boxDAO.getOccupancy().getBox(boxId);
+                        if (box == null) {
+                            box = boxDAO.getById(boxId);
+                        }
                         showAddEditDialog(box);
                     } catch (SQLException ex) {
                         ex.printStackTrace();
@@ -129,7 +148,7 @@ public class BoxPanel extends JPanel {
                 int selectedRow = boxTable.getSelectedRow();
                 if (selectedRow >= 0) {
                     int boxId = (int) tableModel.getValueAt(selectedRow, 0);
-                    String status = (String) tableModel.getValueAt(selectedRow, 3);
+                    String status = (String) tableModel.getValueAt(selectedRow, 4);
                     
                     if (status.equals(BoxStatus.OCCUPIED.toString())) {
                         JOptionPane.showMessageDialog(BoxPanel.this,
@@ -167,43 +186,154 @@ public class BoxPanel extends JPanel {
             }
         });
         
+        // Follow placements and box changes made from the other panels
+        BoxDAO.addChangeListener(new BoxChangeListener() {
+            @Override
+            public void boxSaved(Box box) {
+                scheduleRefresh();
+            }
+            
+            @Override
+            public void boxDeleted(int boxId) {
+                scheduleRefresh();
+            }
+        });
+        
         // Load data
         refreshData();
     }
     
     /**
-     * Refresh data in the table
+     * Refresh data in the table and the occupancy summary. The occupancy is read
+     * from the database in the background the first time only.
      */
     public void refreshData() {
-        tableModel.setRowCount(0);
-        
-        try {
-            List<Box> boxes = boxDAO.getAll();
+        loader.load(boxDAO::getOccupancy, occupancy -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (Box box : occupancy.getBoxes()) {
+                rows.add(toRow(box));
+            }
+            loader.setRows(rows);
+            refreshOccupancy(occupancy);
+        });
+    }
+    
+    /**
+     * Cancel a data load still running, when the panel is hidden
+     */
+    public void cancelLoading() {
+        loader.cancel();
+    }
+    
+    /**
+     * Refresh the panel once after a burst of box changes, if it is shown
+     */
+    private void scheduleRefresh() {
+        SwingUtilities.invokeLater(() -> {
+            if (refreshPending) {
+                return;
+            }
+            refreshPending = true;
             
-            for (Box box : boxes) {
-                Object[] rowData = new Object[6];
-                rowData[0] = box.getId();
-                rowData[1] = box.getName();
-                rowData[2] = box.getLocation();
-                rowData[3] = box.getSize() != null ? box.getSize() : "";
-                rowData[4] = box.getStatus().toString();
-                
-                // Current animal info
-                if (box.getCurrentAnimal() != null) {
-                    rowData[5] = box.getCurrentAnimal().getName() + " (" + 
-                                 box.getCurrentAnimal().getSpecies() + ")";
-                } else {
-                    rowData[5] = "";
+            SwingUtilities.invokeLater(() -> {
+                refreshPending = false;
+                if (isShowing()) {
+                    refreshData();
                 }
-                
-                tableModel.addRow(rowData);
+            });
+        });
+    }
+    
+    /**
+     * Create the summary of box counts by location and size
+     */
+    private JPanel createOccupancyPanel() {
+        occupancyModel = new DefaultTableModel() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    Messages.getString("database.error.generic") + ": " + e.getMessage(),
-                    Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+        };
+        
+        occupancyModel.addColumn(Messages.getString("box.location"));
+        occupancyModel.addColumn(Messages.getString("box.size.gabarit"));
+        occupancyModel.addColumn(Messages.getString("box.occupancy.total"));
+        occupancyModel.addColumn(Messages.getString("box.status.available"));
+        occupancyModel.addColumn(Messages.getString("box.status.occupied"));
+        occupancyModel.addColumn(Messages.getString("box.status.maintenance"));
+        occupancyModel.addColumn(Messages.getString("box.status.cleaning"));
+        
+        JTable occupancyTable = new JTable(occupancyModel);
+        occupancyTable.getTableHeader().setReorderingAllowed(false);
+        occupancyTable.setRowSelectionAllowed(false);
+        
+        JScrollPane scrollPane = new JScrollPane(occupancyTable);
+        scrollPane.setPreferredSize(new Dimension(0, 140));
+        
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(Messages.getString("box.occupancy.title")));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        return panel;
+    }
+    
+    /**
+     * Fill the summary with one row per location and size holding boxes, then
+     * the totals, counted from the in-memory occupancy without a query
+     */
+    private void refreshOccupancy(BoxOccupancy occupancy) {
+        occupancyModel.setRowCount(0);
+        
+        for (String location : occupancy.getLocations()) {
+            for (String size : occupancy.getSizes()) {
+                if (occupancy.count(null, location, size) > 0) {
+                    occupancyModel.addRow(toOccupancyRow(occupancy, location, size));
+                }
+            }
+        }
+        
+        Object[] totals = toOccupancyRow(occupancy, null, null);
+        totals[0] = Messages.getString("box.occupancy.all");
+        totals[1] = "";
+        occupancyModel.addRow(totals);
+    }
+    
+    /**
+     * Build the summary row of a location and size, null matching any
+     */
+    private Object[] toOccupancyRow(BoxOccupancy occupancy, String location, String size) {
+        Object[] rowData = new Object[7];
+        rowData[0] = location;
+        rowData[1] = size;
+        rowData[2] = occupancy.count(null, location, size);
+        rowData[3] = occupancy.count(BoxStatus.AVAILABLE, location, size);
+        rowData[4] = occupancy.count(BoxStatus.OCCUPIED, location, size);
+        rowData[5] = occupancy.count(BoxStatus.MAINTENANCE, location, size);
+        rowData[6] = occupancy.count(BoxStatus.CLEANING, location, size);
+        return rowData;
+    }
+    
+    /**
+     * Build the table row of a box
+     */
+    private Object[] toRow(Box box) {
+        Object[] rowData = new Object[6];
+        rowData[0] = box.getId();
+        rowData[1] = box.getName();
+        rowData[2] = box.getLocation();
+        rowData[3] = box.getSize() != null ? box.getSize() : "";
+        rowData[4] = box.getStatus().toString();
+        
+        // Current animal info
+        if (box.getCurrentAnimal() != null) {
+            rowData[5] = box.getCurrentAnimal().getName() + " (" + 
+                         box.getCurrentAnimal().getSpecies() + ")";
+        } else {
+            rowData[5] = "";
         }
+        
+        return rowData;
     }
     
     /**
@@ -2,12 +2,18 @@ package com.mis.ui;
 
 import java.awt.BorderLayout;
 import java.awt.CardLayout;
+import java.awt.Cursor;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.sql.SQLException;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.swing.BorderFactory;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -17,6 +23,11 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
 import com.mis.api.AnimalController;
+import com.mis.api.AsyncAnimalController;
+import com.mis.api.ReminderEvent;
+import com.mis.api.ReminderListener;
+import com.mis.api.ReminderScheduler;
+import com.mis.db.DatabaseConfig;
 import com.mis.db.DatabaseConnection;
 import com.mis.model.Animal;
 import com.mis.util.Messages;
@@ -26,10 +37,14 @@ import com.mis.util.Messages;
  */
 public class MainWindow extends JFrame {
     private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(MainWindow.class.getName());
     
     private JPanel contentPanel;
     private CardLayout cardLayout;
     private AnimalController animalController;
+    private AsyncAnimalController asyncController;
+    private ReminderScheduler reminderScheduler;
+    private JLabel reminderBadge;
     
     private AnimalPanel animalPanel;
     private BoxPanel boxPanel;
@@ -41,6 +56,7 @@ public class MainWindow extends JFrame {
         initializeControllers();
         initializeUI();
         checkOverdueTreatments();
+        startReminderScheduler();
     }
     
     /**
@@ -62,6 +78,8 @@ public class MainWindow extends JFrame {
      */
     private void initializeControllers() {
         this.animalController = new AnimalController();
+        this.asyncController = new AsyncAnimalController(animalController,
+                DatabaseConnection.getInstance().getConfig());
     }
     
     /**
@@ -165,16 +183,29 @@ public class MainWindow extends JFrame {
         // Add content panel to frame
         getContentPane().add(contentPanel, BorderLayout.CENTER);
         
+        // Badge with the treatment reminder counts, opens the treatment list
+        reminderBadge = new JLabel(" ");
+        reminderBadge.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        reminderBadge.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        reminderBadge.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                showPanel("treatments");
+            }
+        });
+        getContentPane().add(reminderBadge, BorderLayout.SOUTH);
+        
         // Add window listener for cleanup
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                try {
-                    // Close database connection
-                    DatabaseConnection.getInstance().getConnection().close();
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
+                if (reminderScheduler != null) {
+                    reminderScheduler.stop();
                 }
+                asyncController.shutdown();
+                
+                // Close the pooled database connections
+                DatabaseConnection.getInstance().close();
             }
         });
     }
@@ -185,6 +216,12 @@ public class MainWindow extends JFrame {
     public void showPanel(String panelName) {
         cardLayout.show(contentPanel, panelName);
         
+        // Loads started for panels no longer shown are stale
+        animalPanel.cancelLoading();
+        boxPanel.cancelLoading();
+        treatmentPanel.cancelLoading();
+        ownerPanel.cancelLoading();
+        
         // Refresh the panel data
         if (panelName.equals("animals")) {
             animalPanel.refreshData();
@@ -198,41 +235,76 @@ public class MainWindow extends JFrame {
     }
     
     /**
-     * Check for animals with overdue treatments
+     * Check for animals with overdue treatments in the background, so the window
+     * shows up without waiting for the query
      */
     private void checkOverdueTreatments() {
-        try {
-            List<Animal> animalsWithOverdueTreatments = animalController.getAnimalsWithOverdueTreatments();
+        asyncController.getAnimalsWithOverdueTreatmentsAsync().whenComplete((animals, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                        JOptionPane.showMessageDialog(this, 
+                                Messages.getString("treatment.error.overdue.check") + ": " + error.getMessage(),
+                                Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        showOverdueTreatments(animals);
+                    }
+                }));
+    }
+    
+    /**
+     * Warn about the animals with overdue treatments, if any
+     */
+    private void showOverdueTreatments(List<Animal> animalsWithOverdueTreatments) {
+        if (!animalsWithOverdueTreatments.isEmpty()) {
+            StringBuilder message = new StringBuilder();
+            message.append(Messages.getString("treatment.overdue")).append("\n\n");
             
-            if (!animalsWithOverdueTreatments.isEmpty()) {
-                StringBuilder message = new StringBuilder();
-                message.append(Messages.getString("treatment.overdue")).append("\n\n");
-                
-                for (Animal animal : animalsWithOverdueTreatments) {
-                    message.append(animal.getName()).append(" (").append(animal.getSpecies()).append(")\n");
-                    animal.getOverdueTreatments().forEach(t -> 
-                        message.append("- ").append(t.getName())
-                              .append(" (").append(t.getType()).append(") ")
-                              .append(Messages.getString("treatment.due.on"))
-                              .append(" ").append(t.getNextDueDate()).append("\n")
-                    );
-                    message.append("\n");
-                }
-                
-                JOptionPane.showMessageDialog(this, message.toString(), 
-                        Messages.getString("warning"), JOptionPane.WARNING_MESSAGE);
-                
-                // Show treatments panel
-                showPanel("treatments");
+            for (Animal animal : animalsWithOverdueTreatments) {
+                message.append(animal.getName()).append(" (").append(animal.getSpecies()).append(")\n");
+                animal.getOverdueTreatments().forEach(t -> 
+                    message.append("- ").append(t.getName())
+                          .append(" (").append(t.getType()).append(") ")
+                          .append(Messages.getString("treatment.due.on"))
+                          .append(" ").append(t.getNextDueDate()).append("\n")
+                );
+                message.append("\n");
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, 
-                    Messages.getString("treatment.error.overdue.check") + ": " + e.getMessage(),
-                    Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+            
+            JOptionPane.showMessageDialog(this, message.toString(), 
+                    Messages.getString("warning"), JOptionPane.WARNING_MESSAGE);
+            
+            // Show treatments panel
+            showPanel("treatments");
         }
     }
     
+    /**
+     * Start the background reminder checks: the badge shows the current counts and
+     * each new reminder is logged
+     */
+    private void startReminderScheduler() {
+        DatabaseConfig config = DatabaseConnection.getInstance().getConfig();
+        reminderScheduler = new ReminderScheduler(config.getInt("reminders.dueSoonDays", 7),
+                config.getInt("reminders.checkIntervalSeconds", 60));
+        
+        reminderScheduler.addListener(new ReminderListener() {
+            @Override
+            public void remindersRaised(List<ReminderEvent> reminders) {
+                reminders.forEach(reminder -> LOGGER.log(Level.INFO, "Treatment reminder: {0}", reminder));
+            }
+            
+            @Override
+            public void countsChanged(int overdueCount, int dueSoonCount) {
+                SwingUtilities.invokeLater(() -> reminderBadge.setText(
+                        Messages.getString("treatment.status.overdue") + ": " + overdueCount + "    " +
+                        Messages.getString("treatment.status.due_soon") + ": " + dueSoonCount));
+            }
+        });
+        
+        reminderScheduler.start();
+    }
+    
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             MainWindow window = new MainWindow();
@@ -8,7 +8,11 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -20,9 +24,18 @@ import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.table.DefaultTableModel;
 
+import com.mis.api.OwnerDeduplicator;
+import com.mis.db.AnimalDAO;
+import com.mis.db.DatabaseConnection;
 import com.mis.db.OwnerDAO;
+import com.mis.db.SearchDAO;
 import com.mis.model.Animal;
+import com.mis.model.DuplicateOwnerReport;
+import com.mis.model.DuplicateOwnerReport.Candidate;
+import com.mis.model.DuplicateOwnerReport.Match;
 import com.mis.model.Owner;
+import com.mis.model.OwnerSummary;
+import com.mis.model.SearchResult;
 import com.mis.util.Messages;
 
 /**
@@ -31,19 +44,30 @@ import com.mis.util.Messages;
 public class OwnerPanel extends JPanel {
     private static final long serialVersionUID = 1L;
     
+    /** Maximum number of owners shown for a search */
+    private static final int SEARCH_LIMIT = 200;
+    
     private MainWindow mainWindow;
     private OwnerDAO ownerDAO;
+    private AnimalDAO animalDAO;
+    private SearchDAO searchDAO;
     
     private JTable ownerTable;
     private DefaultTableModel tableModel;
+    private TableLoader loader;
+    private TableLoader duplicateLoader;
+    private SearchField searchField;
     private JButton addButton;
     private JButton editButton;
     private JButton deleteButton;
     private JButton viewAnimalsButton;
+    private JButton findDuplicatesButton;
     
     public OwnerPanel(MainWindow mainWindow) {
         this.mainWindow = mainWindow;
         this.ownerDAO = new OwnerDAO();
+        this.animalDAO = new AnimalDAO();
+        this.searchDAO = new SearchDAO();
         
         setLayout(new BorderLayout());
         
@@ -64,6 +88,25 @@ public class OwnerPanel extends JPanel {
         tableModel.addColumn("Phone");
         tableModel.addColumn("Address");
         tableModel.addColumn("Animal Count");
+        tableModel.addColumn("Overdue Animals");
+        
+        loader = new TableLoader(this, tableModel, "owner.error.loading.all");
+        // Separate loader, so refreshing the table does not cancel a duplicate search
+        duplicateLoader = new TableLoader(this, "owner.duplicates.error");
+        
+        // Search box: the table shows the matching owners while it holds text
+        searchField = new SearchField(25, text -> refreshData());
+        searchField.setToolTipText(Messages.getString("search.owners.tooltip"));
+        
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel(Messages.getString("search.label") + ":"));
+        searchPanel.add(searchField);
+        
+        JPanel northPanel = new JPanel(new BorderLayout());
+        northPanel.add(searchPanel, BorderLayout.NORTH);
+        northPanel.add(loader.getIndicator(), BorderLayout.SOUTH);
+        northPanel.add(duplicateLoader.getIndicator(), BorderLayout.CENTER);
+        add(northPanel, BorderLayout.NORTH);
         
         // Create table
         ownerTable = new JTable(tableModel);
@@ -81,11 +124,13 @@ public class OwnerPanel extends JPanel {
         editButton = new JButton(Messages.getString("owner.edit"));
         deleteButton = new JButton(Messages.getString("owner.delete"));
         viewAnimalsButton = new JButton(Messages.getString("owner.view.animals"));
+        findDuplicatesButton = new JButton(Messages.getString("owner.duplicates.find"));
         
         buttonPanel.add(addButton);
         buttonPanel.add(editButton);
         buttonPanel.add(deleteButton);
         buttonPanel.add(viewAnimalsButton);
+        buttonPanel.add(findDuplicatesButton);
         
         add(buttonPanel, BorderLayout.SOUTH);
         
@@ -177,7 +222,11 @@ public class OwnerPanel extends JPanel {
                     
                     if (animalCount > 0) {
                         try {
+                            // The animals are only read when the dialog opens
                             Owner owner = ownerDAO.getById(ownerId);
+                            for (Animal animal : animalDAO.getAllByOwner(ownerId)) {
+                                owner.addAnimal(animal);
+                            }
                             showOwnerAnimalsDialog(owner);
                         } catch (SQLException ex) {
                             ex.printStackTrace();
@@ -198,39 +247,194 @@ public class OwnerPanel extends JPanel {
             }
         });
         
+        findDuplicatesButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findDuplicates();
+            }
+        });
+        
         // Load data
         refreshData();
     }
     
     /**
-     * Refresh data in the table
+     * Refresh data in the table, loading the owners and their animal counts in
+     * the background. While a search is active, only the matching owners are
+     * shown, best matches first.
      */
     public void refreshData() {
-        tableModel.setRowCount(0);
+        String search = searchField.getSearch();
+        
+        loader.load(() -> {
+            List<OwnerSummary> summaries = ownerDAO.getAllSummaries();
+            if (SearchDAO.isSearchable(search)) {
+                Map<Integer, OwnerSummary> byId = new HashMap<>();
+                for (OwnerSummary summary : summaries) {
+                    byId.put(summary.getOwner().getId(), summary);
+                }
+                
+                summaries = new ArrayList<>();
+                for (SearchResult result : searchDAO.search(search, SearchResult.Kind.OWNER, SEARCH_LIMIT)) {
+                    OwnerSummary summary = byId.get(result.getId());
+                    if (summary != null) {
+                        summaries.add(summary);
+                    }
+                }
+            }
+            
+            List<Object[]> rows = new ArrayList<>();
+            for (OwnerSummary summary : summaries) {
+                rows.add(toRow(summary));
+            }
+            return rows;
+        });
+    }
+    
+    /**
+     * Cancel a data load still running, when the panel is hidden
+     */
+    public void cancelLoading() {
+        loader.cancel();
+        duplicateLoader.cancel();
+        findDuplicatesButton.setEnabled(true);
+    }
+    
+    /**
+     * Search the likely duplicate owners in the background, then list them
+     */
+    private void findDuplicates() {
+        if (duplicateLoader.isLoading()) {
+            return;
+        }
         
-        try {
-            List<Owner> owners = ownerDAO.getAll();
+        findDuplicatesButton.setEnabled(false);
+        OwnerDeduplicator deduplicator = new OwnerDeduplicator(ownerDAO,
+                DatabaseConnection.getInstance().getConfig());
+        duplicateLoader.load(deduplicator::findDuplicates, this::showDuplicatesDialog,
+                () -> findDuplicatesButton.setEnabled(true));
+    }
+    
+    /**
+     * Show the likely duplicate owners, and merge the selected pair once confirmed
+     */
+    private void showDuplicatesDialog(DuplicateOwnerReport report) {
+        List<Candidate> candidates = report.getCandidates();
+        if (candidates.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("owner.duplicates.none"),
+                    Messages.getString("owner.duplicates.title"), JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        DefaultTableModel candidateTableModel = new DefaultTableModel() {
+            private static final long serialVersionUID = 1L;
             
-            for (Owner owner : owners) {
-                Object[] rowData = new Object[7];
-                rowData[0] = owner.getId();
-                rowData[1] = owner.getFirstName();
-                rowData[2] = owner.getLastName();
-                rowData[3] = owner.getEmail();
-                rowData[4] = owner.getPhone();
-                rowData[5] = owner.getAddress();
-                rowData[6] = owner.getAnimals().size();
-                
-                tableModel.addRow(rowData);
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        candidateTableModel.addColumn(Messages.getString("owner.duplicates.keep"));
+        candidateTableModel.addColumn(Messages.getString("owner.duplicates.duplicate"));
+        candidateTableModel.addColumn(Messages.getString("owner.duplicates.score"));
+        candidateTableModel.addColumn(Messages.getString("owner.duplicates.reasons"));
+        
+        for (Candidate candidate : candidates) {
+            List<String> reasons = new ArrayList<>();
+            for (Match match : candidate.getMatches()) {
+                reasons.add(Messages.getString("owner.duplicates.reason." + match.name().toLowerCase(Locale.ROOT)));
+            }
+            
+            Object[] rowData = new Object[4];
+            rowData[0] = describe(candidate.getKept());
+            rowData[1] = describe(candidate.getDuplicate());
+            rowData[2] = Math.round(candidate.getScore() * 100) + " %";
+            rowData[3] = String.join(", ", reasons);
+            
+            candidateTableModel.addRow(rowData);
+        }
+        
+        JTable candidateTable = new JTable(candidateTableModel);
+        candidateTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        candidateTable.getTableHeader().setReorderingAllowed(false);
+        
+        JScrollPane scrollPane = new JScrollPane(candidateTable);
+        scrollPane.setPreferredSize(new java.awt.Dimension(750, 300));
+        
+        JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.add(new JLabel(candidates.size() + " " + Messages.getString("owner.duplicates.found")
+                + " " + report.getOwnerCount() + " " + Messages.getString("owner.duplicates.owners")),
+                BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(new JLabel(Messages.getString("owner.duplicates.select")), BorderLayout.SOUTH);
+        
+        int result = JOptionPane.showConfirmDialog(this, panel,
+                Messages.getString("owner.duplicates.title"), JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+        
+        int selectedRow = candidateTable.getSelectedRow();
+        if (result != JOptionPane.OK_OPTION || selectedRow < 0) {
+            return;
+        }
+        
+        Candidate candidate = candidates.get(selectedRow);
+        int confirm = JOptionPane.showConfirmDialog(this,
+                Messages.getString("owner.duplicates.merge.confirm") + "\n"
+                        + describe(candidate.getDuplicate()) + " -> " + describe(candidate.getKept()),
+                Messages.getString("owner.duplicates.title"), JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+        
+        try {
+            boolean success = ownerDAO.merge(candidate.getKept().getId(), candidate.getDuplicate().getId());
+            if (success) {
+                refreshData();
+            } else {
+                JOptionPane.showMessageDialog(this,
+                        Messages.getString("owner.duplicates.merge.fail"),
+                        Messages.getString("owner.update.error.title"), JOptionPane.ERROR_MESSAGE);
             }
         } catch (SQLException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(this,
-                    Messages.getString("owner.error.loading.all") + ": " + e.getMessage(),
+                    Messages.getString("owner.duplicates.error.merging") + ": " + e.getMessage(),
                     Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
         }
     }
     
+    /**
+     * Name and ID of an owner, with the contact detail most useful to tell two apart
+     */
+    private static String describe(Owner owner) {
+        StringBuilder text = new StringBuilder(owner.getFullName()).append(" (#").append(owner.getId()).append(")");
+        if (owner.getPhone() != null) {
+            text.append(" - ").append(owner.getPhone());
+        } else if (owner.getEmail() != null) {
+            text.append(" - ").append(owner.getEmail());
+        }
+        return text.toString();
+    }
+    
+    /**
+     * Build the table row of an owner
+     */
+    private Object[] toRow(OwnerSummary summary) {
+        Owner owner = summary.getOwner();
+        Object[] rowData = new Object[8];
+        rowData[0] = owner.getId();
+        rowData[1] = owner.getFirstName();
+        rowData[2] = owner.getLastName();
+        rowData[3] = owner.getEmail();
+        rowData[4] = owner.getPhone();
+        rowData[5] = owner.getAddress();
+        rowData[6] = summary.getAnimalCount();
+        rowData[7] = summary.getOverdueAnimalCount();
+        
+        return rowData;
+    }
+    
     /**
      * Show the add/edit owner dialog
      */
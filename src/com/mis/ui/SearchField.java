@@ -0,0 +1,75 @@
+package com.mis.ui;
+
+import java.util.function.Consumer;
+
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Search-as-you-type text field. Keystrokes restart a short timer, and the text
+ * is only passed on once typing pauses, so a word typed quickly runs one search
+ * instead of one per letter. The callback runs on the Event Dispatch Thread and
+ * is expected to start the query in the background, e.g. through a TableLoader.
+ */
+class SearchField extends JTextField {
+    private static final long serialVersionUID = 1L;
+    
+    /** Pause in typing after which the search runs */
+    static final int DEBOUNCE_MILLIS = 250;
+    
+    private final Consumer<String> onSearch;
+    private final Timer timer;
+    private String lastSearch = "";
+    
+    /**
+     * @param onSearch Receives the trimmed text, empty when the field was cleared
+     */
+    SearchField(int columns, Consumer<String> onSearch) {
+        super(columns);
+        this.onSearch = onSearch;
+        
+        timer = new Timer(DEBOUNCE_MILLIS, e -> search());
+        timer.setRepeats(false);
+        
+        getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+        });
+        
+        // Enter searches right away
+        addActionListener(e -> {
+            timer.stop();
+            search();
+        });
+    }
+    
+    /**
+     * Text of the last search run, empty when none is active
+     */
+    String getSearch() {
+        return lastSearch;
+    }
+    
+    private void search() {
+        String text = getText().trim();
+        // Typing a space or undoing a change leaves the search as it was
+        if (!text.equals(lastSearch)) {
+            lastSearch = text;
+            onSearch.accept(text);
+        }
+    }
+}
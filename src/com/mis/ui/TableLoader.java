@@ -0,0 +1,168 @@
+package com.mis.ui;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.table.DefaultTableModel;
+
+import com.mis.util.Messages;
+
+/**
+ * Loads the data of a panel's table on a background thread instead of the Event
+ * Dispatch Thread. Starting a new load cancels the one still running, so only the
+ * latest result reaches the table, and the rows replace the table content with a
+ * single model event.
+ */
+class TableLoader {
+    
+    /**
+     * Query run off the Event Dispatch Thread
+     */
+    @FunctionalInterface
+    interface Query<T> {
+        T load() throws SQLException;
+    }
+    
+    private final JComponent parent;
+    private final DefaultTableModel tableModel;
+    private final String errorKey;
+    private final JProgressBar indicator;
+    
+    private SwingWorker<?, Void> worker;
+    
+    /**
+     * @param parent Panel owning the table, used for error dialogs
+     * @param tableModel Model receiving the loaded rows
+     * @param errorKey Message key of the error shown when a load fails
+     */
+    TableLoader(JComponent parent, DefaultTableModel tableModel, String errorKey) {
+        this.parent = parent;
+        this.tableModel = tableModel;
+        this.errorKey = errorKey;
+        
+        indicator = new JProgressBar();
+        indicator.setIndeterminate(true);
+        indicator.setStringPainted(true);
+        indicator.setString(Messages.getString("database.loading"));
+        indicator.setVisible(false);
+    }
+    
+    /**
+     * Loader for a table whose model applies the loaded data itself
+     */
+    TableLoader(JComponent parent, String errorKey) {
+        this(parent, null, errorKey);
+    }
+    
+    /**
+     * Busy indicator, visible while a load is running
+     */
+    JComponent getIndicator() {
+        return indicator;
+    }
+    
+    /**
+     * Run the query in the background, then replace the table rows on the EDT
+     */
+    void load(Query<List<Object[]>> query) {
+        load(query, this::setRows);
+    }
+    
+    /**
+     * Run the query in the background, then pass its result to the given action
+     * on the EDT, unless another load was started in the meantime
+     */
+    <T> void load(Query<T> query, Consumer<T> onLoaded) {
+        load(query, onLoaded, () -> { });
+    }
+    
+    /**
+     * Run the query in the background, then pass its result to the given action
+     * on the EDT, unless another load was started in the meantime
+     * @param onFinished Run on the EDT once the load succeeded or failed, but not
+     * when it was cancelled
+     */
+    <T> void load(Query<T> query, Consumer<T> onLoaded, Runnable onFinished) {
+        cancel();
+        
+        SwingWorker<T, Void> loader = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws SQLException {
+                return query.load();
+            }
+            
+            @Override
+            protected void done() {
+                // A newer load replaced this one
+                if (worker != this) {
+                    return;
+                }
+                worker = null;
+                indicator.setVisible(false);
+                
+                try {
+                    onFinished.run();
+                    onLoaded.accept(get());
+                } catch (CancellationException e) {
+                    // Stale load, the table keeps its rows
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(parent,
+                            Messages.getString(errorKey) + ": " + cause.getMessage(),
+                            Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        
+        worker = loader;
+        indicator.setVisible(true);
+        loader.execute();
+    }
+    
+    /**
+     * Cancel the running load, if any
+     */
+    void cancel() {
+        if (worker != null) {
+            SwingWorker<?, Void> running = worker;
+            worker = null;
+            indicator.setVisible(false);
+            running.cancel(true);
+        }
+    }
+    
+    boolean isLoading() {
+        return worker != null;
+    }
+    
+    /**
+     * Replace every row of the model and notify the table once
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    void setRows(List<Object[]> rows) {
+        int columnCount = tableModel.getColumnCount();
+        Vector<Vector> data = tableModel.getDataVector();
+        data.clear();
+        
+        for (Object[] row : rows) {
+            Vector<Object> rowData = new Vector<>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                rowData.add(i < row.length ? row[i] : null);
+            }
+            data.add(rowData);
+        }
+        
+        tableModel.fireTableDataChanged();
+    }
+}
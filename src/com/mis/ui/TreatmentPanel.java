@@ -10,7 +10,11 @@ import java.awt.event.ActionListener;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -20,12 +24,16 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.JToggleButton;
 import javax.swing.ListSelectionModel;
 import javax.swing.table.DefaultTableModel;
 
 import com.mis.api.AnimalController;
+import com.mis.db.DatabaseConnection;
+import com.mis.model.AdministerOutcome;
 import com.mis.model.Animal;
 import com.mis.model.Treatment;
+import com.mis.model.TreatmentProtocol;
 import com.mis.model.TreatmentType;
 import com.mis.util.Messages;
 
@@ -40,12 +48,19 @@ public class TreatmentPanel extends JPanel {
     
     private JTable treatmentTable;
     private DefaultTableModel tableModel;
+    private TableLoader loader;
     private JButton addButton;
     private JButton administerButton;
+    private JButton administerSelectedButton;
+    private JButton applyProtocolButton;
     private JButton filterButton;
     private JButton clearFilterButton;
+    private JToggleButton dueSoonButton;
     
     private Animal filteredAnimal = null;
+    // Days ahead a treatment is due soon, the same window as the reminder badge
+    private final int dueSoonDays =
+            DatabaseConnection.getInstance().getConfig().getInt("reminders.dueSoonDays", 7);
     
     public TreatmentPanel(MainWindow mainWindow, AnimalController animalController) {
         this.mainWindow = mainWindow;
@@ -73,9 +88,12 @@ public class TreatmentPanel extends JPanel {
         tableModel.addColumn(Messages.getString("treatment.administered"));
         tableModel.addColumn(Messages.getString("treatment.status"));
         
+        loader = new TableLoader(this, tableModel, "treatment.error.loading");
+        add(loader.getIndicator(), BorderLayout.NORTH);
+        
         // Create table
         treatmentTable = new JTable(tableModel);
-        treatmentTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        treatmentTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         treatmentTable.getTableHeader().setReorderingAllowed(false);
         
         // Add table to scroll pane
@@ -87,13 +105,20 @@ public class TreatmentPanel extends JPanel {
         
         addButton = new JButton(Messages.getString("treatment.add"));
         administerButton = new JButton(Messages.getString("treatment.administer"));
+        administerSelectedButton = new JButton(Messages.getString("treatment.administer.selected"));
+        applyProtocolButton = new JButton(Messages.getString("treatment.protocol.apply"));
         filterButton = new JButton(Messages.getString("treatment.filter.animal"));
         clearFilterButton = new JButton(Messages.getString("treatment.filter.clear"));
+        dueSoonButton = new JToggleButton(Messages.getString("treatment.filter.due"));
+        dueSoonButton.setToolTipText(Messages.getString("treatment.filter.due.tooltip"));
         
         buttonPanel.add(addButton);
         buttonPanel.add(administerButton);
+        buttonPanel.add(administerSelectedButton);
+        buttonPanel.add(applyProtocolButton);
         buttonPanel.add(filterButton);
         buttonPanel.add(clearFilterButton);
+        buttonPanel.add(dueSoonButton);
         
         add(buttonPanel, BorderLayout.SOUTH);
         
@@ -120,6 +145,31 @@ public class TreatmentPanel extends JPanel {
             }
         });
         
+        administerSelectedButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int[] selectedRows = treatmentTable.getSelectedRows();
+                if (selectedRows.length > 0) {
+                    List<Integer> treatmentIds = new ArrayList<>();
+                    for (int row : selectedRows) {
+                        treatmentIds.add((int) tableModel.getValueAt(row, 0));
+                    }
+                    showAdministerSelectedDialog(treatmentIds);
+                } else {
+                    JOptionPane.showMessageDialog(TreatmentPanel.this,
+                            Messages.getString("treatment.select.administer"),
+                            Messages.getString("treatment.select.required.title"), JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        });
+        
+        applyProtocolButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showApplyProtocolDialog();
+            }
+        });
+        
         filterButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -135,59 +185,94 @@ public class TreatmentPanel extends JPanel {
             }
         });
         
+        dueSoonButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshData();
+            }
+        });
+        
         // Load data
         refreshData();
     }
     
     /**
-     * Refresh data in the table
+     * Refresh data in the table, loading the treatments in the background. The
+     * treatments due soon are read from the due date index, in due date order;
+     * when the due soon button is pressed, only those are listed, as a plan of
+     * the coming days.
      */
     public void refreshData() {
-        tableModel.setRowCount(0);
+        Animal filter = filteredAnimal;
+        boolean dueSoonOnly = dueSoonButton.isSelected();
         
-        try {
+        loader.load(() -> {
             List<Animal> animals;
             
-            if (filteredAnimal != null) {
-                animals = List.of(animalController.getAnimalById(filteredAnimal.getId()));
+            if (filter != null) {
+                animals = List.of(animalController.getAnimalById(filter.getId()));
             } else {
                 animals = animalController.getAllAnimals();
             }
             
+            // Position of each treatment due soon in due date order
+            LocalDate today = LocalDate.now();
+            Map<Integer, Integer> dueSoon = new HashMap<>();
+            for (List<Integer> ids : animalController.getTreatmentIdsDueBetween(today, today.plusDays(dueSoonDays))
+                    .values()) {
+                for (Integer id : ids) {
+                    dueSoon.put(id, dueSoon.size());
+                }
+            }
+            
+            List<Object[]> rows = new ArrayList<>();
             for (Animal animal : animals) {
                 for (Treatment treatment : animal.getTreatments()) {
-                    Object[] rowData = new Object[9];
-                    rowData[0] = treatment.getId();
-                    rowData[1] = animal.getName();
-                    rowData[2] = treatment.getType().toString();
-                    rowData[3] = treatment.getName();
-                    rowData[4] = treatment.getDescription();
-                    rowData[5] = treatment.getAdministrationDate() != null ? treatment.getAdministrationDate().toString() : "";
-                    rowData[6] = treatment.getNextDueDate() != null ? treatment.getNextDueDate().toString() : "";
-                    rowData[7] = treatment.isAdministered() ? Messages.getString("yes") : Messages.getString("no");
-                    
-                    // Status (Overdue, Due Soon, OK)
-                    String status = Messages.getString("treatment.status.ok");
-                    if (treatment.isOverdue()) {
-                        status = Messages.getString("treatment.status.overdue");
-                    } else if (treatment.getNextDueDate() != null) {
-                        LocalDate now = LocalDate.now();
-                        LocalDate oneWeekFromNow = now.plusDays(7);
-                        if (treatment.getNextDueDate().isBefore(oneWeekFromNow)) {
-                            status = Messages.getString("treatment.status.due_soon");
-                        }
+                    boolean isDueSoon = dueSoon.containsKey(treatment.getId());
+                    if (!dueSoonOnly || isDueSoon) {
+                        rows.add(toRow(animal, treatment, isDueSoon));
                     }
-                    rowData[8] = status;
-                    
-                    tableModel.addRow(rowData);
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    Messages.getString("treatment.error.loading") + ": " + e.getMessage(),
-                    Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+            
+            if (dueSoonOnly) {
+                rows.sort(Comparator.comparingInt(row -> dueSoon.get((Integer) row[0])));
+            }
+            return rows;
+        });
+    }
+    
+    /**
+     * Cancel a data load still running, when the panel is hidden
+     */
+    public void cancelLoading() {
+        loader.cancel();
+    }
+    
+    /**
+     * Build the table row of a treatment
+     */
+    private Object[] toRow(Animal animal, Treatment treatment, boolean dueSoon) {
+        Object[] rowData = new Object[9];
+        rowData[0] = treatment.getId();
+        rowData[1] = animal.getName();
+        rowData[2] = treatment.getType().toString();
+        rowData[3] = treatment.getName();
+        rowData[4] = treatment.getDescription();
+        rowData[5] = treatment.getAdministrationDate() != null ? treatment.getAdministrationDate().toString() : "";
+        rowData[6] = treatment.getNextDueDate() != null ? treatment.getNextDueDate().toString() : "";
+        rowData[7] = treatment.isAdministered() ? Messages.getString("yes") : Messages.getString("no");
+        
+        // Status (Overdue, Due Soon, OK)
+        String status = Messages.getString("treatment.status.ok");
+        if (treatment.isOverdue()) {
+            status = Messages.getString("treatment.status.overdue");
+        } else if (dueSoon) {
+            status = Messages.getString("treatment.status.due_soon");
         }
+        rowData[8] = status;
+        
+        return rowData;
     }
     
     /**
@@ -379,6 +464,179 @@ public class TreatmentPanel extends JPanel {
         }
     }
     
+    /**
+     * Show dialog to administer all selected treatments at once, e.g. during a
+     * vaccination campaign
+     */
+    private void showAdministerSelectedDialog(List<Integer> treatmentIds) {
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 5, 5, 5);
+        
+        // Administration date, today by default
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        panel.add(new JLabel(Messages.getString("treatment.administer.date") + " (" + Messages.getString("animal.birthdate.format") + "):"), gbc);
+        
+        gbc.gridx = 1;
+        JTextField dateField = new JTextField(LocalDate.now().toString(), 20);
+        panel.add(dateField, gbc);
+        
+        // Interval until the next administration
+        gbc.gridx = 0;
+        gbc.gridy = 1;
+        panel.add(new JLabel(Messages.getString("treatment.administer.interval") + ":"), gbc);
+        
+        gbc.gridx = 1;
+        JTextField intervalField = new JTextField("365", 20);
+        panel.add(intervalField, gbc);
+        
+        int result = JOptionPane.showConfirmDialog(this, panel,
+                Messages.getString("treatment.administer.selected") + " (" + treatmentIds.size() + ")",
+                JOptionPane.OK_CANCEL_OPTION);
+        
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        
+        LocalDate administeredOn;
+        try {
+            administeredOn = LocalDate.parse(dateField.getText().trim());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.validation.date"),
+                    Messages.getString("validation.error.title"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        int intervalDays;
+        try {
+            intervalDays = Integer.parseInt(intervalField.getText().trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.validation.interval"),
+                    Messages.getString("validation.error.title"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        try {
+            Map<Integer, AdministerOutcome> outcomes = animalController.administerAll(treatmentIds, administeredOn,
+                    treatment -> administeredOn.plusDays(intervalDays));
+            
+            int administered = 0;
+            int notFound = 0;
+            int failed = 0;
+            for (AdministerOutcome outcome : outcomes.values()) {
+                if (outcome == AdministerOutcome.ADMINISTERED) {
+                    administered++;
+                } else if (outcome == AdministerOutcome.NOT_FOUND) {
+                    notFound++;
+                } else {
+                    failed++;
+                }
+            }
+            
+            refreshData();
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.administer.summary") + ": " + administered +
+                    "\n" + Messages.getString("treatment.administer.notfound") + ": " + notFound +
+                    "\n" + Messages.getString("treatment.administer.failed") + ": " + failed,
+                    Messages.getString("treatment.administer.selected"),
+                    failed + notFound > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("database.error.generic") + ": " + e.getMessage(),
+                    Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    /**
+     * Show dialog to schedule the first dose of a protocol for every animal of a species
+     */
+    private void showApplyProtocolDialog() {
+        List<TreatmentProtocol> protocols = animalController.getTreatmentProtocols();
+        if (protocols.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.protocol.none"),
+                    Messages.getString("treatment.protocol.apply"), JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 5, 5, 5);
+        
+        // Protocol to apply
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        panel.add(new JLabel(Messages.getString("treatment.protocol") + ":"), gbc);
+        
+        gbc.gridx = 1;
+        JComboBox<TreatmentProtocol> protocolCombo = new JComboBox<>(protocols.toArray(new TreatmentProtocol[0]));
+        panel.add(protocolCombo, gbc);
+        
+        // Species of the animals
+        gbc.gridx = 0;
+        gbc.gridy = 1;
+        panel.add(new JLabel(Messages.getString("animal.species") + ":"), gbc);
+        
+        gbc.gridx = 1;
+        JTextField speciesField = new JTextField(20);
+        panel.add(speciesField, gbc);
+        
+        // First dose due date, today by default
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        panel.add(new JLabel(Messages.getString("treatment.protocol.firstdue") + " (" + Messages.getString("animal.birthdate.format") + "):"), gbc);
+        
+        gbc.gridx = 1;
+        JTextField dateField = new JTextField(LocalDate.now().toString(), 20);
+        panel.add(dateField, gbc);
+        
+        int result = JOptionPane.showConfirmDialog(this, panel,
+                Messages.getString("treatment.protocol.apply"), JOptionPane.OK_CANCEL_OPTION);
+        
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        
+        String species = speciesField.getText().trim();
+        if (species.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.protocol.validation.species"),
+                    Messages.getString("validation.error.title"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        LocalDate firstDueDate;
+        try {
+            firstDueDate = LocalDate.parse(dateField.getText().trim());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.validation.date"),
+                    Messages.getString("validation.error.title"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        try {
+            TreatmentProtocol protocol = (TreatmentProtocol) protocolCombo.getSelectedItem();
+            int created = animalController.applyProtocolToSpecies(protocol, species, firstDueDate);
+            
+            refreshData();
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("treatment.protocol.applied") + ": " + created,
+                    Messages.getString("treatment.protocol.apply"), JOptionPane.INFORMATION_MESSAGE);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this,
+                    Messages.getString("database.error.generic") + ": " + e.getMessage(),
+                    Messages.getString("database.error"), JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
     /**
      * Show dialog to filter treatments by animal
      */